@@ -0,0 +1,115 @@
+import java.util.List;
+
+/**
+ * La clase CallSiteCache guarda la función resuelta en un sitio de llamada
+ * para no volver a buscarla en el Environment en cada invocación.
+ *
+ * El cache es válido mientras su versión coincida con la del Environment.
+ */
+public class CallSiteCache {
+    /** Cuerpo de la función resuelta. */
+    private final List<Token> body;
+
+    /** Parámetros formales de la función resuelta. */
+    private final List<Token> parameters;
+
+    /** Tipos declarados de los parámetros (VariableTable.INT, LONG, DOUBLE o EMPTY), o null si no hay declare. */
+    private final byte[] parameterTypes;
+
+    /** Índice del cuerpo donde empieza la evaluación (después de un declare inicial). */
+    private final int bodyStart;
+
+    /** Número de parámetros, ya validado contra los argumentos del sitio. */
+    private final int arity;
+
+    /** Cuerpo ya expandido en este sitio con los argumentos sustituidos, o null si no se expande. */
+    private final List<Token> inlinedBody;
+
+    /** Versión de las funciones del Environment al momento de resolver. */
+    private final int version;
+
+    /**
+     * Crea un nuevo cache para un sitio de llamada.
+     *
+     * @param body el cuerpo de la función
+     * @param parameters los parámetros formales de la función
+     * @param parameterTypes los tipos declarados de los parámetros, o null
+     * @param bodyStart índice del cuerpo donde empieza la evaluación
+     * @param inlinedBody el cuerpo expandido en el sitio, o null
+     * @param version la versión de las funciones al resolver el nombre
+     */
+    public CallSiteCache(List<Token> body, List<Token> parameters, byte[] parameterTypes,
+                         int bodyStart, List<Token> inlinedBody, int version) {
+        this.inlinedBody = inlinedBody;
+        this.body = body;
+        this.parameters = parameters;
+        this.parameterTypes = parameterTypes;
+        this.bodyStart = bodyStart;
+        this.arity = parameters.size();
+        this.version = version;
+    }
+
+    /**
+     * Obtiene el cuerpo de la función.
+     *
+     * @return el cuerpo de la función
+     */
+    public List<Token> getBody() {
+        return body;
+    }
+
+    /**
+     * Obtiene los parámetros formales de la función.
+     *
+     * @return los parámetros de la función
+     */
+    public List<Token> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Obtiene los tipos declarados de los parámetros.
+     *
+     * @return un tipo por parámetro, o null si la función no declara tipos
+     */
+    public byte[] getParameterTypes() {
+        return parameterTypes;
+    }
+
+    /**
+     * Obtiene el índice del cuerpo donde empieza la evaluación.
+     *
+     * @return 0, o el índice siguiente al declare inicial
+     */
+    public int getBodyStart() {
+        return bodyStart;
+    }
+
+    /**
+     * Obtiene el cuerpo expandido en el sitio de llamada.
+     *
+     * @return una sola forma con los argumentos ya sustituidos, o null si la llamada no se expande
+     */
+    public List<Token> getInlinedBody() {
+        return inlinedBody;
+    }
+
+    /**
+     * Obtiene la aridad de la función.
+     *
+     * @return el número de parámetros
+     */
+    public int getArity() {
+        return arity;
+    }
+
+    /**
+     * Indica si el cache sigue siendo válido para el Environment dado.
+     *
+     * @param env el entorno donde se definen las funciones
+     * @return true si ninguna función fue redefinida desde que se creó el cache
+     */
+    public boolean isValid(Environment env) {
+        return version == env.getFunctionsVersion();
+    }
+}
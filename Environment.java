@@ -1,26 +1,52 @@
+import java.math.BigInteger;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Stack;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
- * La clase Environment almacena variables enteras y cadenas.
+ * La clase Environment almacena variables numéricas y cadenas.
  * Almacena funciones definidas por el usuario
  *
+ * Cada ámbito de variables es una VariableTable: una sola tabla de direccionamiento
+ * abierto con ranuras primitivas para enteros y decimales y una ranura de objeto.
+ *
+ * Las variables compartidas (las que usan incf!, set!, compare-and-set! y swap!) están
+ * aparte, en un mapa concurrente de celdas atómicas que comparten todos los entornos
+ * creados con fork; así varios hilos las actualizan sin un candado global.
  */
 public class Environment {
-    // Variables globales (enteras y strings)
-    private HashMap<String, Integer> globalVariablesInt;
-    private HashMap<String, String> globalVariablesStr;
+    // Variables globales (enteros, decimales, BigInteger y cadenas en una sola tabla)
+    private VariableTable globalVariables;
 
     // Funciones definidas (cuerpo y parámetros)
     private HashMap<String, List<Token>> functions;
     private HashMap<String, List<Token>> functionParameters;
 
-    // Pila de ámbitos para recursión (cada ámbito es un mapa de variables)
-    private Stack<HashMap<String, Integer>> localScopes;
-    private Stack<HashMap<String, String>> localStrScopes;
+    // Indica si los mapas de funciones se comparten con un entorno de otro hilo; en ese caso
+    // no se modifican, se copian antes del siguiente defun
+    private boolean functionsShared;
+
+    // Variables compartidas entre hilos, cada una en su propia celda atómica. globalVariables
+    // pertenece a un solo hilo y fork le da a cada tarea su propia copia; las tablas y los
+    // vectores a los que apuntan sí se comparten y se sincronizan por su cuenta
+    private ConcurrentHashMap<String, SharedCell> sharedVariables;
+
+    // Pila de ámbitos para recursión (cada ámbito es una tabla de variables)
+    private ArrayList<VariableTable> localScopes;
+
+    // Primer ámbito visible de la pila; los de abajo quedan ocultos mientras corre una lambda
+    private int scopeBase;
+
+    // Sello de versión de las funciones, cambia con cada defun. Los sellos salen de un
+    // contador común a todos los entornos, así un caché de sitio de llamada resuelto en una
+    // tarea (o en otro intérprete que comparte los tokens) nunca parece válido en otro entorno
+    private static final AtomicInteger NEXT_FUNCTIONS_VERSION = new AtomicInteger();
+    private int functionsVersion;
 
     // Contador de profundidad de recursión
     private int recursionDepth;
@@ -31,26 +57,79 @@ public class Environment {
      *  no recive ningun parametro
      */
     public Environment() {
-        globalVariablesInt = new HashMap<>();
-        globalVariablesStr = new HashMap<>();
+        globalVariables = new VariableTable();
         functions = new HashMap<>();
         functionParameters = new HashMap<>();
-        localScopes = new Stack<>();
-        localStrScopes = new Stack<>();
+        localScopes = new ArrayList<>();
+        sharedVariables = new ConcurrentHashMap<>();
         recursionDepth = 0;
+        functionsVersion = NEXT_FUNCTIONS_VERSION.incrementAndGet();
     }
 
 
     public void pushScope() {
-        localScopes.push(new HashMap<>());
-        localStrScopes.push(new HashMap<>());
+        localScopes.add(new VariableTable());
     }
 
     public void popScope() {
         if (!localScopes.isEmpty()) {
-            localScopes.pop();
-            localStrScopes.pop();
+            localScopes.remove(localScopes.size() - 1);
+        }
+    }
+
+    /**
+     * metodo para entrar a un ámbito aislado, el de una lambda: desde él no se ven los
+     * ámbitos locales de abajo, solo sus propias variables y las globales
+     * @return la base anterior, que se pasa a popIsolatedScope
+     */
+    public int pushIsolatedScope() {
+        int previousBase = scopeBase;
+        localScopes.add(new VariableTable());
+        scopeBase = localScopes.size() - 1;
+        return previousBase;
+    }
+
+    /**
+     * metodo para salir de un ámbito aislado
+     * @param previousBase el valor que devolvió pushIsolatedScope
+     */
+    public void popIsolatedScope(int previousBase) {
+        popScope();
+        scopeBase = previousBase;
+    }
+
+    /**
+     * metodo para obtener la tabla donde se escriben las asignaciones
+     * @return la tabla del ámbito actual, o la global si no hay ámbitos locales
+     */
+    public VariableTable currentTable() {
+        return localScopes.isEmpty() ? globalVariables : localScopes.get(localScopes.size() - 1);
+    }
+
+    /**
+     * metodo para buscar la tabla que contiene una variable
+     * @param name nombre de la variable
+     * @return la tabla del ámbito más reciente que define la variable, o null si no existe
+     */
+    public VariableTable lookupTable(String name) {
+        // Buscar en ámbitos locales (de más reciente a más antiguo)
+        for (int i = localScopes.size() - 1; i >= scopeBase; i--) {
+            VariableTable scope = localScopes.get(i);
+            if (scope.find(name) >= 0) {
+                return scope;
+            }
         }
+        // Buscar en variables globales
+        return globalVariables.find(name) >= 0 ? globalVariables : null;
+    }
+
+    /**
+     * metodo para declarar el tipo de una variable en el ámbito actual
+     * @param name nombre de la variable
+     * @param type VariableTable.INT, VariableTable.LONG o VariableTable.DOUBLE
+     */
+    public void declareVariable(String name, byte type) {
+        currentTable().declare(name, type);
     }
 
     /**
@@ -59,11 +138,33 @@ public class Environment {
      * @param value valor numerico de la variable
      *
      */
-    public void setVariable(String name, int value) {
-        if (!localScopes.isEmpty()) {
-            localScopes.peek().put(name, value);
+    public void setVariable(String name, long value) {
+        currentTable().putLong(name, value);
+    }
+
+    /**
+     * metodo para definir una variable decimal y almacenarla
+     * @param name nombre de la variable
+     * @param value valor decimal de la variable
+     *
+     */
+    public void setVariable(String name, double value) {
+        currentTable().putDouble(name, value);
+    }
+
+    /**
+     * metodo para definir una variable numérica (Long, BigInteger o Double) y almacenarla
+     * @param name nombre de la variable
+     * @param value valor numerico de la variable
+     *
+     */
+    public void setVariable(String name, Number value) {
+        if (value instanceof Long) {
+            setVariable(name, value.longValue());
+        } else if (value instanceof Double) {
+            setVariable(name, value.doubleValue());
         } else {
-            globalVariablesInt.put(name, value);
+            currentTable().putObject(name, value);
         }
     }
 
@@ -74,43 +175,109 @@ public class Environment {
      *
      */
     public void setVariable(String name, String value) {
-        if (!localStrScopes.isEmpty()) {
-            localStrScopes.peek().put(name, value);
-        } else {
-            globalVariablesStr.put(name, value);
+        currentTable().putObject(name, value);
+    }
+
+    /**
+     * metodo para definir una variable con un valor compuesto (por ejemplo un vector) y almacenarla
+     * @param name nombre de la variable
+     * @param value valor de la variable
+     *
+     */
+    public void setVariableValue(String name, Object value) {
+        currentTable().putObject(name, value);
+    }
+
+    /**
+     * metodo para eliminar una variable del ámbito actual
+     * @param name nombre de la variable
+     */
+    public void removeVariable(String name) {
+        currentTable().remove(name);
+    }
+
+    /**
+     * metodo para llamar una variable numérica
+     * @param name nombre de la variable
+     * @return el valor (Long, BigInteger o Double), o null si la variable no existe o no es numérica
+     */
+    public Number getVariableNumber(String name) {
+        VariableTable table = lookupTable(name);
+        if (table == null) {
+            return null;
+        }
+        int slot = table.find(name);
+        switch (table.getKind(slot)) {
+            case VariableTable.LONG:
+                return table.getLong(slot);
+            case VariableTable.DOUBLE:
+                return table.getDouble(slot);
+            default:
+                Object value = table.getObject(slot);
+                return value instanceof BigInteger ? (Number) value : null;
         }
     }
 
     /**
-     * metodo para llamar una variable entera
+     * metodo para llamar una variable con cualquier tipo de valor
      * @param name nombre de la variable
-     * @return
+     * @return el valor (Long, Double u objeto), o null si la variable no existe
      */
-    public Integer getVariableInt(String name) {
-        // Buscar en ámbitos locales (de más reciente a más antiguo)
-        for (int i = localScopes.size() - 1; i >= 0; i--) {
-            if (localScopes.get(i).containsKey(name)) {
-                return localScopes.get(i).get(name);
-            }
+    public Object getVariableValue(String name) {
+        VariableTable table = lookupTable(name);
+        if (table == null) {
+            return null;
         }
-        // Buscar en variables globales
-        return globalVariablesInt.getOrDefault(name, 0);
+        int slot = table.find(name);
+        switch (table.getKind(slot)) {
+            case VariableTable.LONG:
+                return table.getLong(slot);
+            case VariableTable.DOUBLE:
+                return table.getDouble(slot);
+            default:
+                return table.getObject(slot);
+        }
+    }
+
+    /**
+     * metodo para obtener los nombres de las variables compartidas
+     * @return conjunto de nombres (solo lectura)
+     */
+    public Set<String> getSharedVariableNames() {
+        return Collections.unmodifiableSet(sharedVariables.keySet());
     }
 
     /**
-     * metodo para llamar una variable entera
+     * metodo para llamar una variable compartida
      * @param name nombre de la variable
-     * @return
+     * @return el valor actual, o null si la variable no existe
+     */
+    public Object getSharedVariable(String name) {
+        SharedCell cell = sharedVariables.get(name);
+        return cell == null ? null : cell.get();
+    }
+
+    /**
+     * metodo para obtener la celda de una variable compartida, creándola con 0 si no existe
+     * @param name nombre de la variable
+     * @return la celda, que se actualiza con replace o add
+     */
+    public SharedCell sharedCell(String name) {
+        return sharedVariables.computeIfAbsent(name, key -> new SharedCell(0L));
+    }
+
+    /**
+     * metodo para llamar una variable de cadena
+     * @param name nombre de la variable
+     * @return el valor, o "" si la variable no existe o no es cadena
      */
     public String getVariableStr(String name) {
-        // Buscar en ámbitos locales
-        for (int i = localStrScopes.size() - 1; i >= 0; i--) {
-            if (localStrScopes.get(i).containsKey(name)) {
-                return localStrScopes.get(i).get(name);
-            }
+        VariableTable table = lookupTable(name);
+        if (table == null) {
+            return "";
         }
-        // Buscar en variables globales
-        return globalVariablesStr.getOrDefault(name, "");
+        Object value = table.getObject(table.find(name));
+        return value instanceof CharSequence ? value.toString() : "";
     }
 
     /**
@@ -123,6 +290,13 @@ public class Environment {
     public void defineFunction(String name, List<Token> parameters, List<Token> body) {
         // Hacer una copia profunda del cuerpo para evitar problemas de referencia
         List<Token> bodyCopy = new ArrayList<>(body);
+        if (functionsShared) {
+            functions = new HashMap<>(functions);
+            functionParameters = new HashMap<>(functionParameters);
+            functionsShared = false;
+        }
+        // Invalida los caches de los sitios de llamada ya resueltos
+        functionsVersion = NEXT_FUNCTIONS_VERSION.incrementAndGet();
         functions.put(name, bodyCopy);
         functionParameters.put(name, new ArrayList<>(parameters));
     }
@@ -141,6 +315,14 @@ public class Environment {
         return functionParameters.get(name);
     }
 
+    /**
+     * metodo para obtener el sello de versión de las funciones
+     * @return version actual, se incrementa cada vez que se redefine una funcion
+     */
+    public int getFunctionsVersion() {
+        return functionsVersion;
+    }
+
     // ==================== CONTROL DE RECURSIÓN ====================
     public void enterRecursion() {
         recursionDepth++;
@@ -158,21 +340,61 @@ public class Environment {
         return functions.containsKey(name);
     }
 
+    /**
+     * metodo para obtener la tabla de variables globales (no debe modificarse)
+     * @return la tabla de variables globales
+     */
+    public VariableTable getGlobalVariables() {
+        return globalVariables;
+    }
+
+    /**
+     * metodo para obtener los nombres de las funciones definidas
+     * @return conjunto de nombres (solo lectura)
+     */
+    public Set<String> getFunctionNames() {
+        return Collections.unmodifiableSet(functions.keySet());
+    }
+
     public void clear() {
-        globalVariablesInt.clear();
-        globalVariablesStr.clear();
+        globalVariables.clear();
         localScopes.clear();
-        localStrScopes.clear();
+        scopeBase = 0;
+        sharedVariables.clear();
+    }
+
+    /**
+     * metodo para crear un entorno de trabajo para otro hilo: copia las variables globales y
+     * el ámbito actual, comparte las funciones como copia al escribir (ninguno de los dos
+     * entornos modifica los mapas compartidos, el primer defun de cualquiera de ellos trabaja
+     * sobre una copia propia) y comparte las variables compartidas. Así ningún setq o defun
+     * de un hilo es visible en el otro, salvo por set!, incf!, compare-and-set! y swap!; las
+     * tablas y los vectores se copian por referencia y los cambios con table-put o vset sí
+     * se ven en las dos tareas
+     * @return un entorno con su propia pila de ámbitos
+     */
+    public Environment fork() {
+        Environment worker = new Environment();
+        worker.globalVariables = globalVariables.copy();
+        worker.functions = functions;
+        worker.functionParameters = functionParameters;
+        worker.functionsShared = true;
+        functionsShared = true;
+        worker.sharedVariables = sharedVariables;
+        worker.functionsVersion = functionsVersion;
+        worker.recursionDepth = recursionDepth;
+        if (!localScopes.isEmpty()) {
+            worker.localScopes.add(localScopes.get(localScopes.size() - 1).copy());
+        }
+        return worker;
     }
 
     public void pushFunctionScope() {
         if (localScopes.isEmpty()) {
-            localScopes.push(new HashMap<>());
-            localStrScopes.push(new HashMap<>());
+            localScopes.add(new VariableTable());
         } else {
             // Copiar el ámbito anterior para mantener las variables visibles
-            localScopes.push(new HashMap<>(localScopes.peek()));
-            localStrScopes.push(new HashMap<>(localStrScopes.peek()));
+            localScopes.add(localScopes.get(localScopes.size() - 1).copy());
         }
     }
 }
@@ -0,0 +1,505 @@
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * La clase EnvironmentImage guarda un Environment ya inicializado (funciones y
+ * variables globales) en una imagen binaria compacta y lo restaura sin volver a
+ * evaluar los defun y setq que lo construyeron.
+ *
+ * Todas las cadenas (nombres y valores de tokens) se guardan una sola vez en una
+ * tabla y se referencian por índice; la imagen se lee con un mapeo de memoria.
+ *
+ * También se guardan los tipos declarados de las variables globales, las variables
+ * compartidas y la línea de cada token de las funciones.
+ *
+ * Las listas, tablas y lambdas se guardan por valor: una estructura compartida por dos
+ * variables se restaura como dos copias. Los futuros, canales, secuencias perezosas y las
+ * estructuras que se contienen a sí mismas no se pueden guardar y save lo informa.
+ */
+public class EnvironmentImage {
+    // Identificador y versión del formato de archivo
+    private static final int MAGIC = 0x4C454931; // "LEI1"
+    private static final int FORMAT_VERSION = 7;
+
+    // Tamaño máximo del contenido de la imagen (el de un arreglo de Java)
+    private static final int MAX_IMAGE_SIZE = Integer.MAX_VALUE - 8;
+
+    // Tipos de token en la imagen
+    private static final byte PARENTHESIS = 0;
+    private static final byte NUMBER = 1;
+    private static final byte SYMBOL = 2;
+    private static final byte STRING = 3;
+
+    // Tipos de valor numérico en la imagen
+    private static final byte LONG_VALUE = 0;
+    private static final byte DOUBLE_VALUE = 1;
+    private static final byte BIG_VALUE = 2;
+    private static final byte VECTOR_VALUE = 3;
+
+    // Tipos de valor en la sección de valores compuestos (además de los numéricos)
+    private static final byte STRING_VALUE = 4;
+    private static final byte EMPTY_LIST_VALUE = 5;
+    private static final byte CONS_VALUE = 6;
+    private static final byte TABLE_VALUE = 7;
+    private static final byte CLOSURE_VALUE = 8;
+
+    private EnvironmentImage() {
+    }
+
+    /**
+     * metodo para guardar las funciones y variables globales de un entorno
+     * @param env entorno a guardar
+     * @param file archivo de la imagen
+     * @throws IOException si no se puede escribir el archivo, si una variable tiene un valor
+     *                     que no se puede guardar (por ejemplo un futuro o un canal) o si el
+     *                     contenido no cabe en una imagen
+     */
+    public static void save(Environment env, Path file) throws IOException {
+        Map<String, Integer> stringIndex = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        ByteBuffer body = ByteBuffer.allocate(1024);
+
+        // Variables globales: primero las numéricas (y vectores) y luego las de cadena (las LispString se guardan como texto)
+        VariableTable variables = env.getGlobalVariables();
+        int numberCount = 0;
+        int stringCount = 0;
+        int compositeCount = 0;
+        for (int slot = 0; slot < variables.capacity(); slot++) {
+            if (variables.getKey(slot) != null) {
+                if (variables.getObject(slot) instanceof CharSequence) {
+                    stringCount++;
+                } else if (isNumericSlot(variables, slot)) {
+                    numberCount++;
+                } else {
+                    compositeCount++;
+                }
+            }
+        }
+        body = ensure(body, 4);
+        body.putInt(numberCount);
+        for (int slot = 0; slot < variables.capacity(); slot++) {
+            String name = variables.getKey(slot);
+            if (name == null || !isNumericSlot(variables, slot)) {
+                continue;
+            }
+            body = ensure(body, 14);
+            body.putInt(intern(name, stringIndex, strings));
+            body.put(variables.getDeclared(slot));
+            byte kind = variables.getKind(slot);
+            if (kind == VariableTable.LONG) {
+                body.put(LONG_VALUE);
+                body.putLong(variables.getLong(slot));
+            } else if (kind == VariableTable.DOUBLE) {
+                body.put(DOUBLE_VALUE);
+                body.putDouble(variables.getDouble(slot));
+            } else if (variables.getObject(slot) instanceof LispVector) {
+                LispVector vector = (LispVector) variables.getObject(slot);
+                body.put(VECTOR_VALUE);
+                body = ensure(body, vectorSize(vector, name));
+                body.put(vector.getType());
+                body.putInt(vector.length());
+                for (int i = 0; i < vector.length(); i++) {
+                    if (vector.getType() == VariableTable.DOUBLE) {
+                        body.putDouble(vector.getDouble(i));
+                    } else {
+                        body.putLong(vector.getLong(i));
+                    }
+                }
+            } else {
+                body.put(BIG_VALUE);
+                body.putInt(intern(variables.getObject(slot).toString(), stringIndex, strings));
+            }
+        }
+        body = ensure(body, 4 + 8 * stringCount);
+        body.putInt(stringCount);
+        for (int slot = 0; slot < variables.capacity(); slot++) {
+            String name = variables.getKey(slot);
+            if (name != null && variables.getObject(slot) instanceof CharSequence) {
+                body.putInt(intern(name, stringIndex, strings));
+                body.putInt(intern(variables.getObject(slot).toString(), stringIndex, strings));
+            }
+        }
+
+        // Listas, tablas y lambdas
+        body = ensure(body, 4);
+        body.putInt(compositeCount);
+        for (int slot = 0; slot < variables.capacity(); slot++) {
+            String name = variables.getKey(slot);
+            Object value = variables.getObject(slot);
+            if (name == null || value instanceof CharSequence || isNumericSlot(variables, slot)) {
+                continue;
+            }
+            body = ensure(body, 4);
+            body.putInt(intern(name, stringIndex, strings));
+            body = putValue(body, value, name, stringIndex, strings, new ArrayList<>());
+        }
+
+        // Variables compartidas (set!, incf!, compare-and-set! y swap!)
+        body = ensure(body, 4);
+        body.putInt(env.getSharedVariableNames().size());
+        for (String name : env.getSharedVariableNames()) {
+            body = ensure(body, 4);
+            body.putInt(intern(name, stringIndex, strings));
+            body = putValue(body, env.getSharedVariable(name), name, stringIndex, strings, new ArrayList<>());
+        }
+
+        // Funciones (parámetros y cuerpo)
+        body = ensure(body, 4);
+        body.putInt(env.getFunctionNames().size());
+        for (String name : env.getFunctionNames()) {
+            body = ensure(body, 4);
+            body.putInt(intern(name, stringIndex, strings));
+            body = putTokens(body, env.getFunctionParameters(name), stringIndex, strings);
+            body = putTokens(body, env.getFunction(name), stringIndex, strings);
+        }
+        body.flip();
+
+        // Tabla de cadenas, que va antes del cuerpo para poder resolver índices al leer
+        List<byte[]> encoded = new ArrayList<>(strings.size());
+        int tableLength = 4;
+        for (String string : strings) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            encoded.add(bytes);
+            tableLength += 4 + bytes.length;
+        }
+        ByteBuffer header = ByteBuffer.allocate(8 + tableLength);
+        header.putInt(MAGIC);
+        header.putInt(FORMAT_VERSION);
+        header.putInt(encoded.size());
+        for (byte[] bytes : encoded) {
+            header.putInt(bytes.length);
+            header.put(bytes);
+        }
+        header.flip();
+
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, "lei", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                while (body.hasRemaining()) {
+                    channel.write(body);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * metodo para restaurar un entorno desde una imagen
+     * @param file archivo de la imagen
+     * @return un entorno nuevo con las funciones y variables globales guardadas
+     * @throws IOException si no se puede leer el archivo o no es una imagen válida
+     */
+    public static Environment load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                throw new IOException("Error: imagen de entorno no válida");
+            }
+
+            String[] strings = new String[buffer.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            Environment env = new Environment();
+            int intCount = buffer.getInt();
+            for (int i = 0; i < intCount; i++) {
+                String name = strings[buffer.getInt()].intern();
+                byte declared = buffer.get();
+                if (declared != VariableTable.EMPTY) {
+                    env.declareVariable(name, declared);
+                }
+                byte kind = buffer.get();
+                if (kind == LONG_VALUE) {
+                    env.setVariable(name, buffer.getLong());
+                } else if (kind == DOUBLE_VALUE) {
+                    env.setVariable(name, buffer.getDouble());
+                } else if (kind == VECTOR_VALUE) {
+                    LispVector vector = LispVector.create(buffer.get(), buffer.getInt());
+                    for (int j = 0; j < vector.length(); j++) {
+                        if (vector.getType() == VariableTable.DOUBLE) {
+                            vector.set(j, buffer.getDouble());
+                        } else {
+                            vector.setLong(j, buffer.getLong());
+                        }
+                    }
+                    env.setVariableValue(name, vector);
+                } else {
+                    env.setVariable(name, new BigInteger(strings[buffer.getInt()]));
+                }
+            }
+            int strCount = buffer.getInt();
+            for (int i = 0; i < strCount; i++) {
+                String name = strings[buffer.getInt()].intern();
+                env.setVariable(name, strings[buffer.getInt()]);
+            }
+            int compositeCount = buffer.getInt();
+            for (int i = 0; i < compositeCount; i++) {
+                String name = strings[buffer.getInt()].intern();
+                env.setVariableValue(name, getValue(buffer, strings));
+            }
+            int sharedCount = buffer.getInt();
+            for (int i = 0; i < sharedCount; i++) {
+                String name = strings[buffer.getInt()].intern();
+                env.sharedCell(name).set(getValue(buffer, strings));
+            }
+            int functionCount = buffer.getInt();
+            for (int i = 0; i < functionCount; i++) {
+                String name = strings[buffer.getInt()].intern();
+                List<Token> parameters = getTokens(buffer, strings);
+                List<Token> body = getTokens(buffer, strings);
+                env.defineFunction(name, parameters, body);
+            }
+            return env;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException("Error: imagen de entorno truncada o dañada", e);
+        }
+    }
+
+    // Indica si la variable de la ranura va en la sección numérica de la imagen
+    private static boolean isNumericSlot(VariableTable variables, int slot) {
+        Object value = variables.getObject(slot);
+        return variables.getKind(slot) != VariableTable.OBJECT
+                || value instanceof BigInteger || value instanceof LispVector;
+    }
+
+    // Escribe un valor de una variable global; open tiene las listas y tablas que se están
+    // escribiendo, para detectar las que se contienen a sí mismas
+    private static ByteBuffer putValue(ByteBuffer buffer, Object value, String name, Map<String, Integer> stringIndex,
+                                       List<String> strings, List<Object> open) throws IOException {
+        buffer = ensure(buffer, 9);
+        if (value instanceof Long) {
+            buffer.put(LONG_VALUE);
+            buffer.putLong((Long) value);
+        } else if (value instanceof Double) {
+            buffer.put(DOUBLE_VALUE);
+            buffer.putDouble((Double) value);
+        } else if (value instanceof BigInteger) {
+            buffer.put(BIG_VALUE);
+            buffer.putInt(intern(value.toString(), stringIndex, strings));
+        } else if (value instanceof CharSequence) {
+            buffer.put(STRING_VALUE);
+            buffer.putInt(intern(value.toString(), stringIndex, strings));
+        } else if (value instanceof LispVector) {
+            LispVector vector = (LispVector) value;
+            buffer.put(VECTOR_VALUE);
+            buffer = ensure(buffer, vectorSize(vector, name));
+            buffer.put(vector.getType());
+            buffer.putInt(vector.length());
+            for (int i = 0; i < vector.length(); i++) {
+                if (vector.getType() == VariableTable.DOUBLE) {
+                    buffer.putDouble(vector.getDouble(i));
+                } else {
+                    buffer.putLong(vector.getLong(i));
+                }
+            }
+        } else if (value == LispCons.EMPTY) {
+            buffer.put(EMPTY_LIST_VALUE);
+        } else if (value instanceof LispCons) {
+            enter(open, value, name);
+            // Los elementos se recorren en orden; solo los car anidados usan recursión
+            int length = 0;
+            Object current = value;
+            while (current instanceof LispCons && current != LispCons.EMPTY) {
+                length++;
+                current = ((LispCons) current).getCdr();
+            }
+            buffer.put(CONS_VALUE);
+            buffer.putInt(length);
+            for (current = value; current instanceof LispCons && current != LispCons.EMPTY;
+                 current = ((LispCons) current).getCdr()) {
+                buffer = putValue(buffer, ((LispCons) current).getCar(), name, stringIndex, strings, open);
+            }
+            buffer = putValue(buffer, current, name, stringIndex, strings, open);
+            open.remove(open.size() - 1);
+        } else if (value instanceof LispTable) {
+            enter(open, value, name);
+            Object[] entries = ((LispTable) value).entries();
+            buffer.put(TABLE_VALUE);
+            buffer.putInt(entries.length / 2);
+            for (Object entry : entries) {
+                buffer = putValue(buffer, entry, name, stringIndex, strings, open);
+            }
+            open.remove(open.size() - 1);
+        } else if (value instanceof LispClosure) {
+            LispClosure closure = (LispClosure) value;
+            buffer.put(CLOSURE_VALUE);
+            buffer = ensure(buffer, 4 + 4 * closure.getArity());
+            buffer.putInt(closure.getArity());
+            for (int i = 0; i < closure.getArity(); i++) {
+                buffer.putInt(intern(closure.getParameter(i), stringIndex, strings));
+            }
+            buffer = putTokens(buffer, closure.getBody().subList(closure.getBodyStart(), closure.getBodyEnd()),
+                    stringIndex, strings);
+            buffer = ensure(buffer, 4);
+            buffer.putInt(closure.getCapturedCount());
+            for (int i = 0; i < closure.getCapturedCount(); i++) {
+                buffer = ensure(buffer, 4);
+                buffer.putInt(intern(closure.getCapturedName(i), stringIndex, strings));
+                buffer = putValue(buffer, closure.getCapturedValue(i), name, stringIndex, strings, open);
+            }
+        } else {
+            String type = value == null ? "null" : value.getClass().getSimpleName();
+            throw new IOException("Error: la variable " + name + " tiene un valor que no se puede guardar ("
+                    + type + ")");
+        }
+        return buffer;
+    }
+
+    private static void enter(List<Object> open, Object value, String name) throws IOException {
+        for (Object container : open) {
+            if (container == value) {
+                throw new IOException("Error: la variable " + name + " tiene una estructura que se contiene a sí misma");
+            }
+        }
+        open.add(value);
+    }
+
+    private static Object getValue(ByteBuffer buffer, String[] strings) throws IOException {
+        byte kind = buffer.get();
+        switch (kind) {
+            case LONG_VALUE:
+                return buffer.getLong();
+            case DOUBLE_VALUE:
+                return buffer.getDouble();
+            case BIG_VALUE:
+                return new BigInteger(strings[buffer.getInt()]);
+            case STRING_VALUE:
+                return strings[buffer.getInt()];
+            case VECTOR_VALUE:
+                LispVector vector = LispVector.create(buffer.get(), buffer.getInt());
+                for (int j = 0; j < vector.length(); j++) {
+                    if (vector.getType() == VariableTable.DOUBLE) {
+                        vector.set(j, buffer.getDouble());
+                    } else {
+                        vector.setLong(j, buffer.getLong());
+                    }
+                }
+                return vector;
+            case EMPTY_LIST_VALUE:
+                return LispCons.EMPTY;
+            case CONS_VALUE:
+                Object[] elements = new Object[buffer.getInt()];
+                for (int i = 0; i < elements.length; i++) {
+                    elements[i] = getValue(buffer, strings);
+                }
+                Object list = getValue(buffer, strings);
+                for (int i = elements.length - 1; i >= 0; i--) {
+                    list = new LispCons(elements[i], list);
+                }
+                return list;
+            case TABLE_VALUE:
+                int size = buffer.getInt();
+                LispTable table = new LispTable(size);
+                for (int i = 0; i < size; i++) {
+                    Object key = getValue(buffer, strings);
+                    table.put(key, getValue(buffer, strings));
+                }
+                return table;
+            case CLOSURE_VALUE:
+                String[] parameters = new String[buffer.getInt()];
+                for (int i = 0; i < parameters.length; i++) {
+                    parameters[i] = strings[buffer.getInt()].intern();
+                }
+                List<Token> body = getTokens(buffer, strings);
+                String[] capturedNames = new String[buffer.getInt()];
+                Object[] capturedValues = new Object[capturedNames.length];
+                for (int i = 0; i < capturedNames.length; i++) {
+                    capturedNames[i] = strings[buffer.getInt()].intern();
+                    capturedValues[i] = getValue(buffer, strings);
+                }
+                return new LispClosure(parameters, body, 0, body.size(), capturedNames, capturedValues);
+            default:
+                throw new IOException("Error: imagen de entorno no válida");
+        }
+    }
+
+    private static ByteBuffer putTokens(ByteBuffer buffer, List<Token> tokens,
+                                        Map<String, Integer> stringIndex, List<String> strings) throws IOException {
+        buffer = ensure(buffer, 4 + 13 * tokens.size());
+        buffer.putInt(tokens.size());
+        for (Token token : tokens) {
+            byte kind = token.getType().equals("PARENTHESIS") ? PARENTHESIS
+                    : token.getType().equals("NUMBER") ? NUMBER
+                    : token.getType().equals("STRING") ? STRING : SYMBOL;
+            buffer.put(kind);
+            buffer.putInt(intern(token.getValue(), stringIndex, strings));
+            buffer.putInt(token.getPartnerOffset());
+            buffer.putInt(token.getLine());
+        }
+        return buffer;
+    }
+
+    private static List<Token> getTokens(ByteBuffer buffer, String[] strings) {
+        int count = buffer.getInt();
+        List<Token> tokens = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte kind = buffer.get();
+            String type = kind == PARENTHESIS ? "PARENTHESIS" : kind == NUMBER ? "NUMBER"
+                    : kind == STRING ? "STRING" : "SYMBOL";
+            String value = strings[buffer.getInt()];
+            int partnerOffset = buffer.getInt();
+            // Los símbolos se internan como en el Parser, para que las tablas de variables
+            // los comparen por referencia
+            Token token = new Token(type, kind == SYMBOL ? value.intern() : value, buffer.getInt());
+            token.setPartnerOffset(partnerOffset);
+            tokens.add(token);
+        }
+        return tokens;
+    }
+
+    private static int intern(String string, Map<String, Integer> stringIndex, List<String> strings) {
+        Integer index = stringIndex.get(string);
+        if (index == null) {
+            index = strings.size();
+            stringIndex.put(string, index);
+            strings.add(string);
+        }
+        return index;
+    }
+
+    // Bytes de un vector guardado (tipo, largo y elementos), que no caben en un int si el vector es muy grande
+    private static int vectorSize(LispVector vector, String name) throws IOException {
+        long size = 5 + 8L * vector.length();
+        if (size > MAX_IMAGE_SIZE) {
+            throw new IOException("Error: la variable " + name + " tiene un vector demasiado grande para la imagen");
+        }
+        return (int) size;
+    }
+
+    private static ByteBuffer ensure(ByteBuffer buffer, int needed) throws IOException {
+        if (buffer.remaining() >= needed) {
+            return buffer;
+        }
+        long required = (long) buffer.position() + needed;
+        if (required > MAX_IMAGE_SIZE) {
+            throw new IOException("Error: el entorno es demasiado grande para guardarlo en una imagen");
+        }
+        ByteBuffer bigger = ByteBuffer.allocate((int) Math.min(MAX_IMAGE_SIZE, Math.max(buffer.capacity() * 2L, required)));
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+}
@@ -1,13 +1,91 @@
-import java.util.List;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
 
 /**
  * Clase encargada de evaluar expresiones LISP representadas como tokens.
  * Proporciona métodos para evaluar diferentes tipos de operaciones y estructuras de control.
+ *
+ * Cada expresión se evalúa sobre un rango plano de índices de la lista de tokens;
+ * los saltos entre formas hermanas usan el índice de paréntesis pareja que calcula el Parser.
+ * Internamente los valores son Long, BigInteger, Double o String; una evaluación que falla
+ * devuelve un LispError, que cada forma devuelve tal cual sin seguir evaluando.
  */
 public class Evaluator {
+    // Marcas de resultado sin caja: el valor real queda en unboxedLong o unboxedDouble
+    private static final Object UNBOXED_LONG = new Object();
+    private static final Object UNBOXED_DOUBLE = new Object();
+
+    // Tamaño máximo (en tokens) de un cuerpo de función que se expande en el sitio de llamada
+    private static final int MAX_INLINE_TOKENS = 32;
+
+    // Formas que puede usar el cuerpo de una función que se expande en el sitio de llamada
+    private static final Set<String> INLINABLE_FORMS = Set.of("+", "-", "*", "/", "^", "%", ">", "<",
+            "if", "car", "cdr", "cons", "vref", "vlength", "string-length");
+
+    // Nombres de las formas predefinidas (los casos de evaluateExpression)
+    private static final Set<String> BUILTIN_FORMS = Set.of("+", "-", "*", "/", "^", "%",
+            "setq", "declare", "print", "defun", "if", "while", "for", "dotimes",
+            "make-vector", "vref", "vset", "vlength", "vsum", "vmin", "vmax", "vdot", "vmap+", "vfill",
+            "make-table", "table-get", "table-put", "table-remove", "table-count",
+            "cons", "car", "cdr", "list", "range", "map", "filter", "reduce",
+            "lazy-range", "file-lines", "take", "to-list", "lambda", "funcall",
+            "set!", "incf!", "compare-and-set!", "swap!", "spawn", "await", "channel", "send", "recv",
+            "concat", "string-length", "string=", "substring", ">", "<");
+
+    // Tamaño máximo de un vector (el límite práctico de un arreglo de Java)
+    private static final int MAX_VECTOR_LENGTH = Integer.MAX_VALUE - 8;
+
+    // Largo máximo de una cadena armada con concat (el de un arreglo de char)
+    private static final int MAX_STRING_LENGTH = Integer.MAX_VALUE - 8;
+
+    // A partir de esta cantidad de elementos map, filter y reduce reparten el trabajo en el ForkJoinPool
+    private static final int PARALLEL_THRESHOLD = 10_000;
+
+    // Formas con efectos fuera del ámbito de la función; una función que las usa no se ejecuta en paralelo
+    private static final Set<String> IMPURE_FORMS = Set.of("print", "defun", "vset", "vfill",
+            "table-put", "table-remove", "spawn", "send", "recv",
+            "set!", "incf!", "compare-and-set!", "swap!");
+
+    // Error cuando la pila de Java se agota antes del límite de recursión del Environment
+    private static final String STACK_OVERFLOW_MESSAGE = "Error: pila agotada, recursión demasiado profunda";
+
+    // Marca de acumulador vacío en reduce sobre una secuencia perezosa
+    private static final Object NO_VALUE = new Object();
+
+    /**
+     * Recibe cada elemento de una secuencia perezosa.
+     * Devuelve null para seguir, o un mensaje de error para terminar el recorrido.
+     */
+    private interface ElementConsumer {
+        Object accept(Object element);
+    }
+
     private Environment env;
     private Parser parser;
+    // Último entero producido por evaluateOperand cuando devuelve UNBOXED_LONG
+    private long unboxedLong;
+    // Último decimal producido por evaluateOperand cuando devuelve UNBOXED_DOUBLE
+    private double unboxedDouble;
+    // Funciones resueltas por nombre para map, filter y reduce
+    private HashMap<String, CallSiteCache> functionCaches = new HashMap<>();
+    // Destino de print; null para System.out
+    private PrintWriter output;
 
     /**
      * Constructor que inicializa el evaluador con un entorno específico.
@@ -33,18 +111,122 @@ public class Evaluator {
             return "Error: la expresión debe comenzar con '('";
         }
 
-        return evaluateExpression(tokens, 1);
+        try {
+            return String.valueOf(evaluateForm(tokens, 0));
+        } catch (StackOverflowError e) {
+            return STACK_OVERFLOW_MESSAGE;
+        }
+    }
+
+    /**
+     * Evalúa todas las formas de nivel superior de un programa, una tras otra.
+     * @param tokens Lista de tokens del programa completo.
+     * @return El resultado de la última forma evaluada, o un mensaje de error.
+     */
+    public String evaluateProgram(List<Token> tokens) {
+        return String.valueOf(evaluateProgramValue(tokens));
+    }
+
+    /**
+     * Evalúa todas las formas de nivel superior de un programa y devuelve el valor sin convertirlo.
+     * @param tokens Lista de tokens del programa completo.
+     * @return El valor de la última forma (Long, Double, String, LispCons...), o un LispError.
+     */
+    public Object evaluateProgramValue(List<Token> tokens) {
+        try {
+            return evaluateSequence(tokens, 0, tokens.size());
+        } catch (StackOverflowError e) {
+            return new LispError(STACK_OVERFLOW_MESSAGE);
+        }
+    }
+
+    /**
+     * Llama a una función con argumentos ya evaluados, sin pasar por el texto del programa.
+     * @param function Nombre de una función de usuario, de +, -, *, > o <, o de una variable
+     *                 que guarda una lambda; o directamente una LispClosure.
+     * @param args Argumentos (Long, Double, BigInteger, String u otros valores LISP).
+     * @return El resultado de la función, o un LispError.
+     */
+    public Object call(Object function, Object[] args) {
+        if (function instanceof String && !isBuiltinOperator((String) function)
+                && !env.isFunctionDefined((String) function)) {
+            Object variable = evaluateVariable((String) function);
+            if (!(variable instanceof LispClosure)) {
+                return new LispError("Error: función desconocida: " + function);
+            }
+            function = variable;
+        }
+        try {
+            return applyFunction(function, args);
+        } catch (StackOverflowError e) {
+            return new LispError(STACK_OVERFLOW_MESSAGE);
+        }
+    }
+
+    /**
+     * Cambia el destino de print.
+     * @param output Donde se escriben los valores impresos, o null para System.out.
+     */
+    public void setOutput(PrintWriter output) {
+        this.output = output;
+    }
+
+    /**
+     * Evalúa en orden las formas de un rango y devuelve el resultado de la última.
+     * @param tokens Lista de tokens.
+     * @param startIndex Índice de la primera forma.
+     * @param endIndex Índice donde termina el rango (exclusivo).
+     * @return El resultado de la última forma, o un mensaje de error.
+     */
+    private Object evaluateSequence(List<Token> tokens, int startIndex, int endIndex) {
+        Object result = "";
+        for (int i = startIndex; i < endIndex; i = nextIndex(tokens, i)) {
+            result = evaluateToken(tokens, i);
+            if (isError(result)) {
+                return result;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Evalúa la forma que comienza en un paréntesis de apertura.
+     * @param tokens Lista de tokens.
+     * @param openIndex Índice del paréntesis de apertura de la forma.
+     * @return El resultado de la evaluación, o un mensaje de error.
+     */
+    private Object evaluateForm(List<Token> tokens, int openIndex) {
+        int endIndex = findMatchingParenthesis(tokens, openIndex);
+        if (endIndex == -1) {
+            return new LispError("Error: paréntesis no balanceados");
+        }
+        Object result = evaluateExpression(tokens, openIndex + 1, endIndex);
+        if (result instanceof LispError) {
+            // La forma más interna que falló deja su línea en el error
+            return ((LispError) result).at(tokens.get(openIndex).getLine());
+        }
+        return result;
+    }
+
+    /**
+     * Indica si un valor evaluado es un error.
+     * @param value Valor a revisar.
+     * @return true si el valor es un LispError.
+     */
+    private boolean isError(Object value) {
+        return value instanceof LispError;
     }
 
     /**
      * Evalúa una expresión LISP a partir de un índice específico en la lista de tokens.
      * @param tokens Lista de tokens que representan la expresión.
      * @param startIndex Índice desde donde comenzar la evaluación.
-     * @return El resultado de la evaluación como una cadena, o un mensaje de error.
+     * @param endIndex Índice del paréntesis que cierra la expresión.
+     * @return El resultado de la evaluación, o un mensaje de error.
      */
-    private String evaluateExpression(List<Token> tokens, int startIndex) {
-        if (startIndex >= tokens.size()) {
-            return "Error: expresión incompleta";
+    private Object evaluateExpression(List<Token> tokens, int startIndex, int endIndex) {
+        if (startIndex >= endIndex) {
+            return new LispError("Error: expresión incompleta");
         }
 
         Token currentToken = tokens.get(startIndex);
@@ -54,707 +236,3057 @@ public class Evaluator {
 
             switch (command) {
                 case "+":
-                    return evaluateSum(tokens, startIndex + 1);
+                    return evaluateSum(tokens, startIndex + 1, endIndex);
                 case "-":
-                    return evaluateRest(tokens, startIndex + 1);
+                    return evaluateRest(tokens, startIndex + 1, endIndex);
                 case "*":
-                    return evaluateMult(tokens, startIndex + 1);
+                    return evaluateMult(tokens, startIndex + 1, endIndex);
                 case "/":
-                    return evaluateDiv(tokens, startIndex + 1);
+                    return evaluateDiv(tokens, startIndex + 1, endIndex);
                 case "^":
-                    return evaluatePow(tokens, startIndex + 1);
+                    return evaluatePow(tokens, startIndex + 1, endIndex);
                 case "%":
-                    return evaluateMod(tokens, startIndex + 1);
+                    return evaluateMod(tokens, startIndex + 1, endIndex);
                 case "setq":
-                    return evaluateSetq(tokens, startIndex + 1);
+                    return evaluateSetq(tokens, startIndex + 1, endIndex);
+                case "declare":
+                    return evaluateDeclare(tokens, startIndex + 1, endIndex);
                 case "print":
-                    return evaluatePrint(tokens, startIndex + 1);
+                    return evaluatePrint(tokens, startIndex + 1, endIndex);
                 case "defun":
-                    return evaluateDefun(tokens, startIndex + 1);
+                    return evaluateDefun(tokens, startIndex + 1, endIndex);
                 case "if":
-                    return evaluateIf(tokens, startIndex + 1);
+                    return evaluateIf(tokens, startIndex + 1, endIndex);
                 case "while":
-                    return evaluateWhile(tokens, startIndex + 1);
+                    return evaluateWhile(tokens, startIndex + 1, endIndex);
                 case "for":
-                    return evaluateFor(tokens, startIndex + 1);
+                    return evaluateFor(tokens, startIndex + 1, endIndex);
+                case "dotimes":
+                    return evaluateDotimes(tokens, startIndex + 1, endIndex);
+                case "make-vector":
+                    return evaluateMakeVector(tokens, startIndex + 1, endIndex);
+                case "vref":
+                    return evaluateVref(tokens, startIndex + 1, endIndex);
+                case "vset":
+                    return evaluateVset(tokens, startIndex + 1, endIndex);
+                case "vlength":
+                case "vsum":
+                case "vmin":
+                case "vmax":
+                    return evaluateVectorReduction(tokens, startIndex + 1, endIndex, command);
+                case "vdot":
+                    return evaluateVdot(tokens, startIndex + 1, endIndex);
+                case "vmap+":
+                    return evaluateVmapAdd(tokens, startIndex + 1, endIndex);
+                case "vfill":
+                    return evaluateVfill(tokens, startIndex + 1, endIndex);
+                case "make-table":
+                    return evaluateMakeTable(tokens, startIndex + 1, endIndex);
+                case "table-get":
+                case "table-put":
+                case "table-remove":
+                case "table-count":
+                    return evaluateTableOperation(tokens, startIndex + 1, endIndex, command);
+                case "cons":
+                    return evaluateCons(tokens, startIndex + 1, endIndex);
+                case "car":
+                case "cdr":
+                    return evaluateCarCdr(tokens, startIndex + 1, endIndex, command);
+                case "list":
+                    return evaluateList(tokens, startIndex + 1, endIndex);
+                case "range":
+                    return evaluateRange(tokens, startIndex + 1, endIndex);
+                case "map":
+                case "filter":
+                    return evaluateMapFilter(tokens, startIndex + 1, endIndex, command);
+                case "reduce":
+                    return evaluateReduce(tokens, startIndex + 1, endIndex);
+                case "lazy-range":
+                    return evaluateLazyRange(tokens, startIndex + 1, endIndex);
+                case "file-lines":
+                    return evaluateFileLines(tokens, startIndex + 1, endIndex);
+                case "take":
+                    return evaluateTake(tokens, startIndex + 1, endIndex);
+                case "to-list":
+                    return evaluateToList(tokens, startIndex + 1, endIndex);
+                case "lambda":
+                    return evaluateLambda(tokens, startIndex, endIndex);
+                case "funcall":
+                    return evaluateFuncall(tokens, startIndex + 1, endIndex);
+                case "set!":
+                case "incf!":
+                case "compare-and-set!":
+                case "swap!":
+                    return evaluateSharedOperation(tokens, startIndex + 1, endIndex, command);
+                case "spawn":
+                    return evaluateSpawn(tokens, startIndex + 1, endIndex);
+                case "await":
+                    return evaluateAwait(tokens, startIndex + 1, endIndex);
+                case "channel":
+                    return evaluateChannel(tokens, startIndex + 1, endIndex);
+                case "send":
+                case "recv":
+                    return evaluateChannelOperation(tokens, startIndex + 1, endIndex, command);
+                case "concat":
+                    return evaluateConcat(tokens, startIndex + 1, endIndex);
+                case "string-length":
+                case "string=":
+                case "substring":
+                    return evaluateStringOperation(tokens, startIndex + 1, endIndex, command);
                 case ">":
-                    return evaluateLessThan(tokens, startIndex + 1);
+                    return evaluateGreaterThan(tokens, startIndex + 1, endIndex);
                 case "<":
-                    return evaluateGreaterThan(tokens, startIndex + 1);
+                    return evaluateLessThan(tokens, startIndex + 1, endIndex);
                 default:
-                    // Verificar si es una función definida por el usuario
-                    List<Token> functionBody = env.getFunction(command);
-                    List<Token> functionParameters = env.getFunctionParameters(command);
-                    if (functionBody != null && functionParameters != null) {
-                        return evaluateFunctionCall(tokens, startIndex, functionParameters, functionBody);
+                    // Verificar si es una función definida por el usuario (cache del sitio de llamada)
+                    CallSiteCache cache = currentToken.getCallSiteCache();
+                    if (cache == null || !cache.isValid(env)) {
+                        cache = resolveCallSite(tokens, startIndex, endIndex);
                     }
-                    // Verificar si es una variable
-                    Integer intValue = env.getVariableInt(command);
-                    if (intValue != null) {
-                        return String.valueOf(intValue);
+                    if (cache != null) {
+                        List<Token> inlined = cache.getInlinedBody();
+                        if (inlined != null) {
+                            return evaluateToken(inlined, 0);
+                        }
+                        return evaluateFunctionCall(tokens, startIndex, endIndex, cache);
+                    }
+                    List<Token> functionBody = env.getFunction(command);
+                    if (functionBody != null) {
+                        return new LispError("Error: argumentos incorrectos para " + command);
                     }
-                    String strValue = env.getVariableStr(command);
-                    if (strValue != null && !strValue.isEmpty()) {
-                        return strValue;
+                    // Verificar si es una variable; si guarda una lambda, se llama con los operandos
+                    Object variable = evaluateVariable(command);
+                    if (variable instanceof LispClosure) {
+                        return callClosure((LispClosure) variable, tokens, startIndex + 1, endIndex);
                     }
-                    return "Error: comando no reconocido - " + command;
+                    return variable;
             }
         }
         else if (currentToken.getType().equals("NUMBER")) {
+            return evaluateNumber(currentToken);
+        }
+        else if (currentToken.getType().equals("STRING")) {
             return currentToken.getValue();
         }
         else if (currentToken.getType().equals("PARENTHESIS")) {
             if (currentToken.getValue().equals("(")) {
-                // Manejar expresiones anidadas
-                int endIndex = findMatchingParenthesis(tokens, startIndex);
-                if (endIndex == -1) {
-                    return "Error: paréntesis no balanceados";
+                // Manejar expresiones anidadas; ((lambda ...) args) llama a la lambda
+                Object head = evaluateForm(tokens, startIndex);
+                if (head instanceof LispClosure) {
+                    return callClosure((LispClosure) head, tokens, nextIndex(tokens, startIndex), endIndex);
                 }
-                List<Token> nestedTokens = tokens.subList(startIndex, endIndex + 1);
-                return evaluate(nestedTokens);
+                return head;
             } else if (currentToken.getValue().equals(")")) {
-                return "Error: paréntesis de cierre inesperado";
+                return new LispError("Error: paréntesis de cierre inesperado");
             }
         }
 
-        return "Error: token no válido - " + currentToken.getValue();
+        return new LispError("Error: token no válido - " + currentToken.getValue());
     }
 
     /**
-     * Evalúa una llamada a función definida por el usuario.
+     * Resuelve el nombre de una función de usuario y guarda el resultado en el token del sitio de llamada.
      * @param tokens Lista de tokens que representan la llamada a función.
-     * @param startIndex Índice donde comienza la llamada a función.
-     * @param parameters Lista de parámetros formales de la función.
-     * @param body Cuerpo de la función a evaluar.
-     * @return Resultado de la evaluación de la función.
+     * @param startIndex Índice del nombre de la función.
+     * @param endIndex Índice del paréntesis que cierra la llamada.
+     * @return El cache creado, o null si el nombre no es una función o la cantidad de argumentos no coincide.
      */
-    private String evaluateFunctionCall(List<Token> tokens, int startIndex,
-                                        List<Token> parameters, List<Token> body) {
-        // Control de profundidad
-        env.enterRecursion();
-
-        // Crear nuevo ámbito para esta llamada
-        env.pushFunctionScope();
+    private CallSiteCache resolveCallSite(List<Token> tokens, int startIndex, int endIndex) {
+        Token nameToken = tokens.get(startIndex);
+        List<Token> functionParameters = env.getFunctionParameters(nameToken.getValue());
+        if (functionParameters == null) {
+            return null;
+        }
 
-        try {
-            // Evaluar argumentos
-            List<String> args = new ArrayList<>();
-            int i = startIndex + 1;
-
-            while (i < tokens.size() && !tokens.get(i).getValue().equals(")")) {
-                if (tokens.get(i).getValue().equals("(")) {
-                    int end = findMatchingParenthesis(tokens, i);
-                    List<Token> nested = tokens.subList(i, end + 1);
-                    args.add(evaluate(nested));
-                    i = end + 1;
-                } else {
-                    args.add(evaluateToken(tokens, i));
-                    i++;
-                }
-            }
+        // La cantidad de argumentos de un sitio de llamada no cambia, se valida una sola vez
+        int argCount = 0;
+        for (int i = startIndex + 1; i < endIndex; i = nextIndex(tokens, i)) {
+            argCount++;
+        }
+        if (argCount != functionParameters.size()) {
+            return null;
+        }
 
-            // Verificar argumentos
-            if (args.size() != parameters.size()) {
-                return "Error: argumentos incorrectos para " + tokens.get(startIndex).getValue();
-            }
+        CallSiteCache cache = resolveFunction(nameToken.getValue(), tokens, startIndex, endIndex);
+        if (cache != null) {
+            nameToken.setCallSiteCache(cache);
+        }
+        return cache;
+    }
 
-            // Asignar parámetros
-            for (int j = 0; j < parameters.size(); j++) {
-                String paramName = parameters.get(j).getValue();
-                String argValue = args.get(j);
+    /**
+     * Resuelve una función de usuario por nombre: tipos declarados, inicio del cuerpo y,
+     * si se da el sitio de llamada, el cuerpo expandido en ese sitio.
+     * @param name Nombre de la función.
+     * @param tokens Lista de tokens de la llamada, o null si no hay sitio que expandir.
+     * @param startIndex Índice del nombre de la función en la llamada.
+     * @param endIndex Índice del paréntesis que cierra la llamada.
+     * @return El cache de la función, o null si no es una función válida.
+     */
+    private CallSiteCache resolveFunction(String name, List<Token> tokens, int startIndex, int endIndex) {
+        List<Token> functionBody = env.getFunction(name);
+        List<Token> functionParameters = env.getFunctionParameters(name);
+        if (functionBody == null || functionParameters == null) {
+            return null;
+        }
 
-                try {
-                    int val = Integer.parseInt(argValue);
-                    env.setVariable(paramName, val);
-                } catch (NumberFormatException e) {
-                    env.setVariable(paramName, argValue);
-                }
+        // Un declare al inicio del cuerpo fija los tipos de los parámetros
+        byte[] parameterTypes = null;
+        int bodyStart = 0;
+        if (isDeclareForm(functionBody, 0)) {
+            int declareEnd = findMatchingParenthesis(functionBody, 0);
+            parameterTypes = new byte[functionParameters.size()];
+            if (parseDeclare(functionBody, 2, declareEnd, functionParameters, parameterTypes) != null) {
+                return null;
             }
-
-            // Evaluar cuerpo
-            return evaluate(body);
-        } finally {
-            env.popScope();
-            env.exitRecursion();
+            bodyStart = declareEnd + 1;
         }
+
+        List<Token> inlinedBody = parameterTypes == null && tokens != null
+                ? buildInlinedBody(tokens, startIndex, endIndex, functionBody, functionParameters)
+                : null;
+
+        return new CallSiteCache(functionBody, functionParameters, parameterTypes,
+                bodyStart, inlinedBody, env.getFunctionsVersion());
     }
 
     /**
-     * Evalúa una expresión acumulando resultados parciales.
-     * @param tokens Lista de tokens a evaluar.
-     * @param startIndex Índice donde comenzar la evaluación.
-     * @param previousResult Resultado acumulado hasta el momento.
-     * @return Resultado final de la evaluación.
+     * Expande en el sitio de llamada el cuerpo de una función pequeña (como square o abs),
+     * sustituyendo cada parámetro por el argumento, para no crear ámbito ni evaluar argumentos
+     * aparte. Solo se expanden cuerpos cerrados de una forma: sus símbolos son parámetros o
+     * formas de INLINABLE_FORMS. Como el ámbito es dinámico, un cuerpo que llama a otra función
+     * o lee otra variable podría ver que los parámetros no existen en el ámbito de quien llama.
+     * Los argumentos compuestos deben ser aritmética pura y usarse una sola vez fuera de un if,
+     * para no repetir ni saltar su evaluación.
+     * @param tokens Lista de tokens de la llamada.
+     * @param startIndex Índice del nombre de la función.
+     * @param endIndex Índice del paréntesis que cierra la llamada.
+     * @param body Cuerpo de la función.
+     * @param parameters Parámetros de la función.
+     * @return El cuerpo expandido, o null si la llamada no se puede expandir.
      */
-    private String evaluateExpressionWithResult(List<Token> tokens, int startIndex, String previousResult) {
-        if (startIndex >= tokens.size()) {
-            return previousResult;
+    private List<Token> buildInlinedBody(List<Token> tokens, int startIndex, int endIndex,
+                                         List<Token> body, List<Token> parameters) {
+        if (body.isEmpty() || body.size() > MAX_INLINE_TOKENS || nextIndex(body, 0) != body.size()) {
+            return null;
         }
 
-        Token currentToken = tokens.get(startIndex);
-        if (currentToken.getType().equals("PARENTHESIS") && currentToken.getValue().equals(")")) {
-            return previousResult;
+        // Revisar el cuerpo y contar los usos de cada parámetro
+        int[] uses = new int[parameters.size()];
+        boolean conditional = false;
+        for (int k = 0; k < body.size(); k++) {
+            Token token = body.get(k);
+            if (!token.getType().equals("SYMBOL")) {
+                continue;
+            }
+            String value = token.getValue();
+            boolean head = k > 0 && body.get(k - 1).getValue().equals("(");
+            if (head) {
+                if (!INLINABLE_FORMS.contains(value)) {
+                    return null;
+                }
+                conditional |= value.equals("if");
+                continue;
+            }
+            int parameter = parameterPosition(parameters, value);
+            if (parameter == -1) {
+                return null;
+            }
+            uses[parameter]++;
         }
 
-        // Si el token actual es un número o un símbolo, continuar evaluando
-        if (currentToken.getType().equals("NUMBER") || currentToken.getType().equals("SYMBOL")) {
-            String nextResult = evaluateToken(tokens, startIndex);
-            if (nextResult.startsWith("Error")) {
-                return nextResult;
+        // Revisar los argumentos
+        int[] argStarts = new int[parameters.size() + 1];
+        int argCount = 0;
+        for (int i = startIndex + 1; i < endIndex; i = nextIndex(tokens, i)) {
+            argStarts[argCount++] = i;
+        }
+        argStarts[argCount] = endIndex;
+        int inlinedSize = body.size();
+        for (int j = 0; j < argCount; j++) {
+            int argLength = argStarts[j + 1] - argStarts[j];
+            inlinedSize += (argLength - 1) * uses[j];
+            if (argLength == 1 && !tokens.get(argStarts[j]).getValue().equals("(")) {
+                continue;
+            }
+            if (uses[j] != 1 || conditional || !isPureArithmetic(tokens, argStarts[j], argStarts[j + 1])) {
+                return null;
             }
-            // Aquí puedes decidir cómo combinar previousResult y nextResult
-            // Por ejemplo, para la suma:
-            int result = Integer.parseInt(previousResult) + Integer.parseInt(nextResult);
-            return String.valueOf(result);
+        }
+        if (inlinedSize > 2 * MAX_INLINE_TOKENS) {
+            return null;
         }
 
-        // Si el token actual es una expresión anidada, evaluarla y continuar
-        if (currentToken.getType().equals("PARENTHESIS") && currentToken.getValue().equals("(")) {
-            int endIndex = findMatchingParenthesis(tokens, startIndex);
-            if (endIndex == -1) {
-                return "Error: paréntesis no balanceados";
+        // Copiar el cuerpo con los argumentos sustituidos; los símbolos y paréntesis se copian
+        // para que sus caches y parejas no se compartan con la lista original
+        List<Token> inlined = new ArrayList<>(inlinedSize);
+        for (Token token : body) {
+            int parameter = token.getType().equals("SYMBOL") ? parameterPosition(parameters, token.getValue()) : -1;
+            if (parameter == -1) {
+                inlined.add(token.getType().equals("NUMBER") ? token
+                        : new Token(token.getType(), token.getValue(), token.getLine()));
+                continue;
             }
-            List<Token> nestedTokens = tokens.subList(startIndex, endIndex + 1);
-            String nestedResult = evaluate(nestedTokens);
-            if (nestedResult.startsWith("Error")) {
-                return nestedResult;
+            for (int k = argStarts[parameter]; k < argStarts[parameter + 1]; k++) {
+                Token argToken = tokens.get(k);
+                inlined.add(argToken.getType().equals("NUMBER") ? argToken
+                        : new Token(argToken.getType(), argToken.getValue(), argToken.getLine()));
             }
-            // Aquí puedes decidir cómo combinar previousResult y nestedResult
-            // Por ejemplo, para la suma:
-            int result = Integer.parseInt(previousResult) + Integer.parseInt(nestedResult);
-            return evaluateExpressionWithResult(tokens, endIndex + 1, String.valueOf(result));
         }
-
-        return "Error: token no válido";
+        int[] openStack = new int[inlined.size()];
+        int depth = 0;
+        for (int k = 0; k < inlined.size(); k++) {
+            String value = inlined.get(k).getValue();
+            if (!inlined.get(k).getType().equals("PARENTHESIS")) {
+                continue;
+            }
+            if (value.equals("(")) {
+                openStack[depth++] = k;
+            } else {
+                int open = openStack[--depth];
+                inlined.get(open).setPartnerOffset(k - open);
+                inlined.get(k).setPartnerOffset(open - k);
+            }
+        }
+        return inlined;
     }
 
     /**
-     * Encuentra el paréntesis de cierre que coincide con uno de apertura.
-     * @param tokens Lista de tokens donde buscar.
-     * @param startIndex Índice del paréntesis de apertura.
-     * @return Índice del paréntesis de cierre o -1 si no se encuentra.
+     * Busca un nombre entre los parámetros de una función.
+     * @return La posición del parámetro, o -1 si no es un parámetro.
      */
-    private int findMatchingParenthesis(List<Token> tokens, int startIndex) {
-        int parenthesisCount = 1;
-        for (int i = startIndex + 1; i < tokens.size(); i++) {
-            Token token = tokens.get(i);
-            if (token.getType().equals("PARENTHESIS")) {
-                if (token.getValue().equals("(")) {
-                    parenthesisCount++;
-                } else if (token.getValue().equals(")")) {
-                    parenthesisCount--;
-                    if (parenthesisCount == 0) {
-                        return i;
-                    }
-                }
+    private static int parameterPosition(List<Token> parameters, String name) {
+        for (int k = 0; k < parameters.size(); k++) {
+            if (parameters.get(k).getValue().equals(name)) {
+                return k;
             }
         }
         return -1;
     }
 
     /**
-     * Evalúa una operación de suma (+).
-     * @param tokens Lista de tokens que representan la operación.
-     * @param startIndex Índice donde comienza la operación.
-     * @return Resultado de la suma como cadena.
+     * Indica si un rango de tokens solo contiene aritmética y comparaciones predefinidas,
+     * que no tienen efectos secundarios.
      */
-    private String evaluateSum(List<Token> tokens, int startIndex) {
-        if (tokens.size() < startIndex + 1) {
-            return "Error: suma requiere al menos un operando";
-        }
-
-        int result = 0;
-        int i = startIndex;
-
-        while (i < tokens.size() && !tokens.get(i).getValue().equals(")")) {
-            String currentResult = evaluateToken(tokens, i);
-            if (currentResult.startsWith("Error")) {
-                return currentResult;
+    private static boolean isPureArithmetic(List<Token> tokens, int startIndex, int endIndex) {
+        for (int k = startIndex; k + 1 < endIndex; k++) {
+            if (!tokens.get(k).getValue().equals("(") || !tokens.get(k).getType().equals("PARENTHESIS")) {
+                continue;
             }
-            try {
-                result += Integer.parseInt(currentResult);
-            } catch (NumberFormatException e) {
-                return "Error: operando no numérico en suma";
-            }
-
-            // Avanzar al siguiente token, saltando cualquier expresión ya procesada
-            if (tokens.get(i).getType().equals("PARENTHESIS") && tokens.get(i).getValue().equals("(")) {
-                i = findMatchingParenthesis(tokens, i) + 1;
-            } else {
-                i++;
+            switch (tokens.get(k + 1).getValue()) {
+                case "+":
+                case "-":
+                case "*":
+                case "/":
+                case "^":
+                case "%":
+                case ">":
+                case "<":
+                    break;
+                default:
+                    return false;
             }
         }
-
-        return String.valueOf(result);
+        return true;
     }
 
     /**
-     * Evalúa una operación de resta (-).
-     * @param tokens Lista de tokens que representan la operación.
-     * @param startIndex Índice donde comienza la operación.
-     * @return Resultado de la resta como cadena.
+     * Aplica una función (de usuario, +, -, *, > o <, o una lambda) a valores ya evaluados.
+     * @param function Nombre de la función, o una LispClosure.
+     * @param args Argumentos ya evaluados.
+     * @return El resultado de la función, o un mensaje de error.
      */
-    private String evaluateRest(List<Token> tokens, int startIndex) {
-        if (tokens.size() < startIndex + 1) {
-            return "Error: resta requiere al menos un operando";
+    private Object applyFunction(Object function, Object[] args) {
+        if (function instanceof LispClosure) {
+            return applyClosure((LispClosure) function, args);
         }
-
-        String firstResult = evaluateToken(tokens, startIndex);
-        if (firstResult.startsWith("Error")) {
-            return firstResult;
+        String name = (String) function;
+        if (isBuiltinOperator(name)) {
+            return applyOperator(name.charAt(0), args);
+        }
+        CallSiteCache cache = functionCaches.get(name);
+        if (cache == null || !cache.isValid(env)) {
+            cache = resolveFunction(name, null, 0, 0);
+            if (cache == null) {
+                return new LispError("Error: función desconocida: " + name);
+            }
+            functionCaches.put(name, cache);
+        }
+        if (cache.getArity() != args.length) {
+            return new LispError("Error: argumentos incorrectos para " + name);
         }
-        int result = Integer.parseInt(firstResult);
 
-        for (int i = startIndex + 1; i < tokens.size(); i++) {
-            String nestedResult = evaluateToken(tokens, i);
-            if (nestedResult.startsWith("Error")) {
-                return nestedResult;
+        env.enterRecursion();
+        env.pushFunctionScope();
+        try {
+            List<Token> parameters = cache.getParameters();
+            byte[] types = cache.getParameterTypes();
+            for (int j = 0; j < args.length; j++) {
+                String parameter = parameters.get(j).getValue();
+                if (types == null || types[j] == VariableTable.EMPTY) {
+                    assignVariable(parameter, args[j]);
+                    continue;
+                }
+                env.declareVariable(parameter, types[j]);
+                Object error = assignDeclared(parameter, types[j], args[j]);
+                if (error != null) {
+                    return error;
+                }
             }
-            result -= Integer.parseInt(nestedResult);
-            i = skipProcessedTokens(tokens, i);
+            List<Token> body = cache.getBody();
+            return evaluateSequence(body, cache.getBodyStart(), body.size());
+        } catch (StackOverflowError e) {
+            return new LispError(STACK_OVERFLOW_MESSAGE);
+        } finally {
+            env.popScope();
+            env.exitRecursion();
         }
-        return String.valueOf(result);
     }
 
     /**
-     * Evalúa una operación de multiplicación (*).
-     * @param tokens Lista de tokens que representan la operación.
-     * @param startIndex Índice donde comienza la operación.
-     * @return Resultado de la multiplicación como cadena.
+     * Evalúa (lambda (parámetros...) cuerpo...): crea una closure que captura, por valor,
+     * solo las variables libres del cuerpo que están definidas en este momento.
+     * La lista de variables libres se calcula una vez y se guarda en el token lambda.
+     * @param tokens Lista de tokens.
+     * @param lambdaIndex Índice del símbolo lambda.
+     * @param endIndex Índice del paréntesis que cierra la forma.
+     * @return La LispClosure, o un mensaje de error.
      */
-    private String evaluateMult(List<Token> tokens, int startIndex) {
-        if (tokens.size() < startIndex + 1) {
-            return "Error: multiplicación requiere al menos un operando";
+    private Object evaluateLambda(List<Token> tokens, int lambdaIndex, int endIndex) {
+        int listIndex = lambdaIndex + 1;
+        if (listIndex >= endIndex || !tokens.get(listIndex).getValue().equals("(")) {
+            return new LispError("Error: lambda requiere una lista de parámetros");
         }
-
-        // Evaluar el primer operando
-        String firstResult = evaluateToken(tokens, startIndex);
-        if (firstResult.startsWith("Error")) {
-            return firstResult;
+        int listEnd = findMatchingParenthesis(tokens, listIndex);
+        String[] parameters = new String[listEnd - listIndex - 1];
+        for (int k = listIndex + 1; k < listEnd; k++) {
+            if (!tokens.get(k).getType().equals("SYMBOL")) {
+                return new LispError("Error: parámetro de lambda no válido: " + tokens.get(k).getValue());
+            }
+            parameters[k - listIndex - 1] = tokens.get(k).getValue();
         }
-        int result = Integer.parseInt(firstResult);
+        int bodyStart = listEnd + 1;
 
-        // Evaluar los operandos restantes
-        for (int i = startIndex + 1; i < tokens.size(); i++) {
-            String nestedResult = evaluateToken(tokens, i);
-            if (nestedResult.startsWith("Error")) {
-                return nestedResult;
+        Token lambdaToken = tokens.get(lambdaIndex);
+        String[] free = (String[]) lambdaToken.getLiteral();
+        if (free == null) {
+            free = freeVariables(tokens, bodyStart, endIndex, parameters);
+            lambdaToken.setLiteral(free);
+        }
+        String[] names = new String[free.length];
+        Object[] values = new Object[free.length];
+        int captured = 0;
+        for (String name : free) {
+            if (env.lookupTable(name) != null) {
+                names[captured] = name;
+                values[captured++] = evaluateVariable(name);
             }
-            result *= Integer.parseInt(nestedResult);
-            i = skipProcessedTokens(tokens, i);
         }
-        return String.valueOf(result);
+        return new LispClosure(parameters, tokens, bodyStart, endIndex,
+                Arrays.copyOf(names, captured), Arrays.copyOf(values, captured));
     }
 
     /**
-     * Evalúa una operación de división (/).
-     * @param tokens Lista de tokens que representan la operación.
-     * @param startIndex Índice donde comienza la operación.
-     * @return Resultado de la división como cadena.
+     * Busca los símbolos del cuerpo de una lambda que pueden ser variables libres: los que no
+     * son parámetros ni nombres de formas predefinidas en la posición de función. Un símbolo
+     * en la posición de función puede ser una variable que guarda otra lambda, así que
+     * también se captura si está definido.
      */
-    private String evaluateDiv(List<Token> tokens, int startIndex) {
-        String firstResult = evaluateToken(tokens, startIndex);
-        if (firstResult.startsWith("Error")) {
-            return firstResult;
-        }
-        double result = Double.parseDouble(firstResult);
-
-        for (int i = startIndex + 1; i < tokens.size(); i++) {
-            String nestedResult = evaluateToken(tokens, i);
-            if (nestedResult.startsWith("Error")) {
-                return nestedResult;
+    private static String[] freeVariables(List<Token> tokens, int startIndex, int endIndex, String[] parameters) {
+        Set<String> free = new LinkedHashSet<>();
+        for (int k = startIndex; k < endIndex; k++) {
+            Token token = tokens.get(k);
+            if (!token.getType().equals("SYMBOL")
+                    || (tokens.get(k - 1).getValue().equals("(") && BUILTIN_FORMS.contains(token.getValue()))) {
+                continue;
             }
-            double operand = Double.parseDouble(nestedResult);
-            if (operand == 0) {
-                return "Error: división por cero";
+            if (!Arrays.asList(parameters).contains(token.getValue())) {
+                free.add(token.getValue());
             }
-            result /= operand;
-            i = skipProcessedTokens(tokens, i);
         }
-        return String.valueOf(result);
+        return free.toArray(new String[0]);
     }
 
     /**
-     * Evalúa una operación de potencia (^).
-     * @param tokens Lista de tokens que representan la operación.
-     * @param startIndex Índice donde comienza la operación.
-     * @return Resultado de la potencia como cadena.
+     * Evalúa (funcall f argumentos...), donde f es el nombre de una función o una lambda.
      */
-    private String evaluatePow(List<Token> tokens, int startIndex) {
-        String firstResult = evaluateToken(tokens, startIndex);
-        if (firstResult.startsWith("Error")) {
-            return firstResult;
+    private Object evaluateFuncall(List<Token> tokens, int startIndex, int endIndex) {
+        if (startIndex >= endIndex) {
+            return new LispError("Error: funcall requiere una función");
         }
-        double result = Double.parseDouble(firstResult);
-
-        for (int i = startIndex + 1; i < tokens.size(); i++) {
-            String nestedResult = evaluateToken(tokens, i);
-            if (nestedResult.startsWith("Error")) {
-                return nestedResult;
-            }
-            result = Math.pow(result, Double.parseDouble(nestedResult));
-            i = skipProcessedTokens(tokens, i);
+        Object function = functionArgument(tokens, startIndex, "funcall");
+        if (isError(function)) {
+            return function;
         }
-        return String.valueOf(result);
+        Object args = evaluateArguments(tokens, nextIndex(tokens, startIndex), endIndex);
+        if (isError(args)) {
+            return args;
+        }
+        return applyFunction(function, (Object[]) args);
     }
 
     /**
-     * Evalúa una operación de módulo (%).
-     * @param tokens Lista de tokens que representan la operación.
-     * @param startIndex Índice donde comienza la operación.
-     * @return Resultado del módulo como cadena.
+     * Evalúa los operandos de un rango y llama a una lambda con ellos.
      */
-    private String evaluateMod(List<Token> tokens, int startIndex) {
-        String firstResult = evaluateToken(tokens, startIndex);
-        if (firstResult.startsWith("Error")) {
-            return firstResult;
-        }
-        int result = Integer.parseInt(firstResult);
-
-        for (int i = startIndex + 1; i < tokens.size(); i++) {
-            String nestedResult = evaluateToken(tokens, i);
-            if (nestedResult.startsWith("Error")) {
-                return nestedResult;
-            }
-            int operand = Integer.parseInt(nestedResult);
-            if (operand == 0) {
-                return "Error: módulo por cero";
-            }
-            result %= operand;
-            i = skipProcessedTokens(tokens, i);
+    private Object callClosure(LispClosure closure, List<Token> tokens, int startIndex, int endIndex) {
+        Object args = evaluateArguments(tokens, startIndex, endIndex);
+        if (isError(args)) {
+            return args;
         }
-        return String.valueOf(result);
+        return applyClosure(closure, (Object[]) args);
     }
 
     /**
-     * Evalúa una operación de asignación (setq).
-     * @param tokens Lista de tokens que representan la operación.
-     * @param startIndex Índice donde comienza la operación.
-     * @return Mensaje de confirmación de asignación.
+     * Evalúa en orden los operandos de un rango.
+     * @return Los valores (Object[]), o el primer error.
      */
-    private String evaluateSetq(List<Token> tokens, int startIndex) {
-        if (tokens.size() < startIndex + 2) {
-            return "Error: setq mal formado";
-        }
-
-        String varName = tokens.get(startIndex).getValue();
-        String valueResult;
-
-        // Caso 1: Asignación directa de un número o variable existente
-        if (tokens.get(startIndex + 1).getType().equals("NUMBER") ||
-                (tokens.get(startIndex + 1).getType().equals("SYMBOL") &&
-                        (env.getVariableInt(tokens.get(startIndex + 1).getValue()) != null ||
-                                env.getVariableStr(tokens.get(startIndex + 1).getValue()) != null))) {
-
-            valueResult = evaluateToken(tokens, startIndex + 1);
-        }
-        // Caso 2: Expresión compleja entre paréntesis
-    else if (tokens.get(startIndex + 1).getType().equals("PARENTHESIS") &&
-                tokens.get(startIndex + 1).getValue().equals("(")) {
-
-            int endIndex = findMatchingParenthesis(tokens, startIndex + 1);
-            if (endIndex == -1) {
-                return "Error: paréntesis no balanceados en setq";
+    private Object evaluateArguments(List<Token> tokens, int startIndex, int endIndex) {
+        List<Object> args = new ArrayList<>();
+        for (int i = startIndex; i < endIndex; i = nextIndex(tokens, i)) {
+            Object value = evaluateToken(tokens, i);
+            if (isError(value)) {
+                return value;
             }
-            List<Token> expressionTokens = tokens.subList(startIndex + 1, endIndex + 1);
-            valueResult = evaluate(expressionTokens);
-        }
-        else {
-            return "Error: valor de asignación no válido";
+            args.add(value);
         }
+        return args.toArray();
+    }
 
-        if (valueResult.startsWith("Error")) {
-            return valueResult;
+    /**
+     * Llama a una lambda: el ámbito nuevo empieza vacío, recibe solo las variables
+     * capturadas y los parámetros y no ve los ámbitos locales de quien llama, solo las
+     * variables globales. Las funciones que llama el cuerpo siguen con ámbito dinámico.
+     */
+    private Object applyClosure(LispClosure closure, Object[] args) {
+        if (args.length != closure.getArity()) {
+            return new LispError("Error: argumentos incorrectos para lambda");
         }
-
+        env.enterRecursion();
+        int previousBase = env.pushIsolatedScope();
         try {
-            // Intentar asignar como entero primero
-            int intValue = Integer.parseInt(valueResult);
-            env.setVariable(varName, intValue);
-        } catch (NumberFormatException e) {
-            // Si no es número, asignar como string
-            env.setVariable(varName, valueResult);
+            for (int i = 0; i < closure.getCapturedCount(); i++) {
+                assignVariable(closure.getCapturedName(i), closure.getCapturedValue(i));
+            }
+            for (int j = 0; j < args.length; j++) {
+                assignVariable(closure.getParameter(j), args[j]);
+            }
+            return evaluateSequence(closure.getBody(), closure.getBodyStart(), closure.getBodyEnd());
+        } catch (StackOverflowError e) {
+            return new LispError(STACK_OVERFLOW_MESSAGE);
+        } finally {
+            env.popIsolatedScope(previousBase);
+            env.exitRecursion();
         }
-
-        return "Variable " + varName + " asignada";
     }
 
     /**
-     * Evalúa una operación de impresión (print).
-     * @param tokens Lista de tokens que representan la operación.
-     * @param startIndex Índice donde comienza la operación.
-     * @return Valor que se imprimió.
+     * Indica si un nombre es un operador predefinido que se puede pasar a map, filter o reduce.
      */
-    private String evaluatePrint(List<Token> tokens, int startIndex) {
-        String result = evaluateToken(tokens, startIndex);
-        System.out.println(result);
-        return result;
+    public static boolean isBuiltinOperator(String name) {
+        return name.length() == 1 && "+-*<>".indexOf(name.charAt(0)) >= 0;
     }
 
     /**
-     * Avanza el índice saltando tokens ya procesados (expresiones anidadas).
-     * @param tokens Lista de tokens.
-     * @param index Índice actual.
-     * @return Nuevo índice después de saltar tokens procesados.
+     * Aplica +, -, * (sobre todos los argumentos) o > y < (sobre dos) a valores ya evaluados.
      */
-    private int skipProcessedTokens(List<Token> tokens, int index) {
-        int endIndex = findMatchingParenthesis(tokens, index);
-        return endIndex != -1 ? endIndex : index;
+    private Object applyOperator(char operator, Object[] args) {
+        if (operator == '>' || operator == '<') {
+            if (args.length != 2) {
+                return new LispError("Error: " + operator + " requiere dos operandos");
+            }
+            Integer comparison = compareOperands(args[0], args[1]);
+            if (comparison == null) {
+                return new LispError("Error: operandos no numéricos para " + operator);
+            }
+            return (operator == '>' ? comparison > 0 : comparison < 0) ? 1L : 0L;
+        }
+        if (args.length == 0) {
+            return operator == '*' ? 1L : 0L;
+        }
+        Object result = args[0];
+        for (int i = 1; i < args.length && !isError(result); i++) {
+            result = combineNumbers(operator, result, args[i]);
+        }
+        return LispNumbers.toNumber(result) != null || isError(result) ? result
+                : new LispError("Error: operando no numérico en " + operator);
     }
 
     /**
-     * Evalúa un token individual o expresión anidada.
-     * @param tokens Lista de tokens.
-     * @param index Índice del token a evaluar.
-     * @return Resultado de la evaluación del token.
+     * Suma, resta o multiplica dos valores con la torre numérica (Double si alguno es Double).
      */
-    private String evaluateToken(List<Token> tokens, int index) {
-        if (index >= tokens.size()) {
-            return "Error: índice fuera de rango";
+    private static Object combineNumbers(char operator, Object left, Object right) {
+        Object a = LispNumbers.toNumber(left);
+        Object b = LispNumbers.toNumber(right);
+        if (a == null || b == null) {
+            return new LispError("Error: operando no numérico en " + operator);
         }
-
-        Token token = tokens.get(index);
-
-        if (token.getType().equals("NUMBER")) {
-            return token.getValue();
-        }
-        else if (token.getType().equals("SYMBOL")) {
-            // Verificar si es una variable numérica
-            Integer intValue = env.getVariableInt(token.getValue());
-            if (intValue != null) {
-                return String.valueOf(intValue);
-            }
-            // Verificar si es una variable string
-            String strValue = env.getVariableStr(token.getValue());
-            if (strValue != null && !strValue.isEmpty()) {
-                return strValue;
-            }
-            return "Error: símbolo no reconocido - " + token.getValue();
+        if (a instanceof Double || b instanceof Double) {
+            return applyDouble(operator, ((Number) a).doubleValue(), ((Number) b).doubleValue());
         }
-        else if (token.getType().equals("PARENTHESIS") && token.getValue().equals("(")) {
-            // Manejar expresiones anidadas
-            int endIndex = findMatchingParenthesis(tokens, index);
-            if (endIndex == -1) {
-                return "Error: paréntesis no balanceados";
-            }
-            List<Token> nestedTokens = tokens.subList(index, endIndex + 1);
-            return evaluate(nestedTokens);
+        if (operator == '+') {
+            return LispNumbers.add(a, b);
+        } else if (operator == '-') {
+            return LispNumbers.subtract(a, b);
         }
-
-        return "Error: token no válido";
+        return LispNumbers.multiply(a, b);
     }
 
     /**
-     * Evalúa una definición de función (defun).
-     * @param tokens Lista de tokens que representan la definición.
+     * Evalúa una llamada a función definida por el usuario.
+     * @param tokens Lista de tokens que representan la llamada a función.
+     * @param startIndex Índice donde comienza la llamada a función.
+     * @param endIndex Índice del paréntesis que cierra la llamada.
+     * @param cache Cache del sitio de llamada con la función ya resuelta y su aridad validada.
+     * @return Resultado de la evaluación de la función.
+     */
+    private Object evaluateFunctionCall(List<Token> tokens, int startIndex, int endIndex, CallSiteCache cache) {
+        List<Token> parameters = cache.getParameters();
+
+        // Control de profundidad
+        env.enterRecursion();
+
+        // Crear nuevo ámbito para esta llamada
+        env.pushFunctionScope();
+
+        try {
+            // Evaluar argumentos (la aridad ya fue validada al resolver el sitio)
+            byte[] types = cache.getParameterTypes();
+            Object[] args = new Object[cache.getArity()];
+            if (types == null) {
+                int argIndex = 0;
+                for (int i = startIndex + 1; i < endIndex; i = nextIndex(tokens, i)) {
+                    Object value = evaluateToken(tokens, i);
+                    if (isError(value)) {
+                        return value;
+                    }
+                    args[argIndex++] = value;
+                }
+
+                // Asignar parámetros
+                for (int j = 0; j < args.length; j++) {
+                    assignVariable(parameters.get(j).getValue(), args[j]);
+                }
+            } else {
+                // Los argumentos declarados se evalúan sin caja y se validan una sola vez aquí
+                long[] primitives = new long[args.length];
+                int argIndex = 0;
+                for (int i = startIndex + 1; i < endIndex; i = nextIndex(tokens, i)) {
+                    Object value = types[argIndex] != VariableTable.EMPTY
+                            ? evaluateOperand(tokens, i) : evaluateToken(tokens, i);
+                    if (isError(value)) {
+                        return value;
+                    }
+                    if (value == UNBOXED_LONG) {
+                        primitives[argIndex] = unboxedLong;
+                    } else if (value == UNBOXED_DOUBLE) {
+                        primitives[argIndex] = Double.doubleToRawLongBits(unboxedDouble);
+                    }
+                    args[argIndex++] = value;
+                }
+
+                for (int j = 0; j < args.length; j++) {
+                    String name = parameters.get(j).getValue();
+                    if (types[j] == VariableTable.EMPTY) {
+                        assignVariable(name, args[j]);
+                        continue;
+                    }
+                    if (args[j] == UNBOXED_LONG) {
+                        unboxedLong = primitives[j];
+                    } else if (args[j] == UNBOXED_DOUBLE) {
+                        unboxedDouble = Double.longBitsToDouble(primitives[j]);
+                    }
+                    env.declareVariable(name, types[j]);
+                    Object error = assignDeclared(name, types[j], args[j]);
+                    if (error != null) {
+                        return error;
+                    }
+                }
+            }
+
+            // Evaluar cuerpo (sin el declare inicial)
+            List<Token> body = cache.getBody();
+            return evaluateSequence(body, cache.getBodyStart(), body.size());
+        } catch (StackOverflowError e) {
+            return new LispError(STACK_OVERFLOW_MESSAGE);
+        } finally {
+            env.popScope();
+            env.exitRecursion();
+        }
+    }
+
+    /**
+     * Encuentra el paréntesis de cierre que coincide con uno de apertura.
+     * Usa el índice de parejas calculado por el Parser y solo recorre los tokens
+     * cuando el token no trae esa información.
+     * @param tokens Lista de tokens donde buscar.
+     * @param startIndex Índice del paréntesis de apertura.
+     * @return Índice del paréntesis de cierre o -1 si no se encuentra.
+     */
+    private int findMatchingParenthesis(List<Token> tokens, int startIndex) {
+        int offset = tokens.get(startIndex).getPartnerOffset();
+        if (offset > 0) {
+            int endIndex = startIndex + offset;
+            return endIndex < tokens.size() ? endIndex : -1;
+        }
+
+        int parenthesisCount = 1;
+        for (int i = startIndex + 1; i < tokens.size(); i++) {
+            Token token = tokens.get(i);
+            if (token.getType().equals("PARENTHESIS")) {
+                if (token.getValue().equals("(")) {
+                    parenthesisCount++;
+                } else if (token.getValue().equals(")")) {
+                    parenthesisCount--;
+                    if (parenthesisCount == 0) {
+                        return i;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Obtiene el índice del operando siguiente, saltando la expresión anidada si la hay.
+     * @param tokens Lista de tokens.
+     * @param index Índice del operando actual.
+     * @return Índice del primer token después del operando actual.
+     */
+    private int nextIndex(List<Token> tokens, int index) {
+        if (tokens.get(index).getValue().equals("(")) {
+            int endIndex = findMatchingParenthesis(tokens, index);
+            return endIndex != -1 ? endIndex + 1 : tokens.size();
+        }
+        return index + 1;
+    }
+
+    /**
+     * Evalúa una operación de suma (+).
+     * @param tokens Lista de tokens que representan la operación.
+     * @param startIndex Índice donde comienza la operación.
+     * @param endIndex Índice del paréntesis que cierra la operación.
+     * @return Resultado de la suma.
+     */
+    private Object evaluateSum(List<Token> tokens, int startIndex, int endIndex) {
+        return evaluateArithmetic(tokens, startIndex, endIndex, '+', "suma", false);
+    }
+
+    /**
+     * Evalúa una operación de resta (-).
+     * @param tokens Lista de tokens que representan la operación.
+     * @param startIndex Índice donde comienza la operación.
+     * @param endIndex Índice del paréntesis que cierra la operación.
+     * @return Resultado de la resta.
+     */
+    private Object evaluateRest(List<Token> tokens, int startIndex, int endIndex) {
+        return evaluateArithmetic(tokens, startIndex, endIndex, '-', "resta", false);
+    }
+
+    /**
+     * Evalúa una operación de multiplicación (*).
+     * @param tokens Lista de tokens que representan la operación.
+     * @param startIndex Índice donde comienza la operación.
+     * @param endIndex Índice del paréntesis que cierra la operación.
+     * @return Resultado de la multiplicación.
+     */
+    private Object evaluateMult(List<Token> tokens, int startIndex, int endIndex) {
+        return evaluateArithmetic(tokens, startIndex, endIndex, '*', "multiplicación", false);
+    }
+
+    /**
+     * Evalúa +, - o * sobre todos los operandos.
+     * Acumula en un long primitivo; pasa a BigInteger solo si Math.*Exact detecta desborde
+     * y a un double primitivo en cuanto aparece un operando Double.
+     * @param tokens Lista de tokens que representan la operación.
+     * @param startIndex Índice del primer operando.
+     * @param endIndex Índice del paréntesis que cierra la operación.
+     * @param operator '+', '-' o '*'.
+     * @param operationName Nombre de la operación para los mensajes de error.
+     * @param unboxed Si es true, un resultado entero se deja en unboxedLong y se devuelve UNBOXED_LONG.
+     * @return Resultado de la operación.
+     */
+    private Object evaluateArithmetic(List<Token> tokens, int startIndex, int endIndex,
+                                      char operator, String operationName, boolean unboxed) {
+        if (startIndex >= endIndex) {
+            return new LispError("Error: " + operationName + " requiere al menos un operando");
+        }
+
+        long result = operator == '*' ? 1 : 0;
+        double doubleResult = 0;
+        Object bigResult = null; // Solo se usa después de un desborde
+        boolean floating = false;
+
+        for (int i = startIndex; i < endIndex; i = nextIndex(tokens, i)) {
+            Object value = evaluateOperand(tokens, i);
+            // La resta parte del primer operando
+            char op = operator == '-' && i == startIndex ? '+' : operator;
+
+            if (!floating && bigResult == null && (value == UNBOXED_LONG || value instanceof Long)) {
+                long operand = value == UNBOXED_LONG ? unboxedLong : (Long) value;
+                try {
+                    if (op == '+') {
+                        result = Math.addExact(result, operand);
+                    } else if (op == '-') {
+                        result = Math.subtractExact(result, operand);
+                    } else {
+                        result = Math.multiplyExact(result, operand);
+                    }
+                    continue;
+                } catch (ArithmeticException e) {
+                    bigResult = result;
+                }
+            }
+            if (value == UNBOXED_DOUBLE || (floating && value == UNBOXED_LONG)) {
+                if (!floating) {
+                    doubleResult = bigResult != null ? ((Number) bigResult).doubleValue() : result;
+                    floating = true;
+                }
+                doubleResult = applyDouble(op, doubleResult, value == UNBOXED_DOUBLE ? unboxedDouble : unboxedLong);
+                continue;
+            }
+            value = boxed(value);
+            if (isError(value)) {
+                return value;
+            }
+
+            Object operand = LispNumbers.toNumber(value);
+            if (operand == null) {
+                return new LispError("Error: operando no numérico en " + operationName);
+            }
+            if (floating || operand instanceof Double) {
+                if (!floating) {
+                    doubleResult = bigResult != null ? ((Number) bigResult).doubleValue() : result;
+                    floating = true;
+                }
+                doubleResult = applyDouble(op, doubleResult, ((Number) operand).doubleValue());
+                continue;
+            }
+
+            Object accumulated = bigResult != null ? bigResult : result;
+            if (op == '+') {
+                bigResult = LispNumbers.add(accumulated, operand);
+            } else if (op == '-') {
+                bigResult = LispNumbers.subtract(accumulated, operand);
+            } else {
+                bigResult = LispNumbers.multiply(accumulated, operand);
+            }
+        }
+
+        if (floating) {
+            if (unboxed) {
+                unboxedDouble = doubleResult;
+                return UNBOXED_DOUBLE;
+            }
+            return doubleResult;
+        }
+        if (bigResult != null) {
+            return bigResult;
+        }
+        if (unboxed) {
+            unboxedLong = result;
+            return UNBOXED_LONG;
+        }
+        return result;
+    }
+
+    /**
+     * Aplica +, - o * sobre decimales primitivos.
+     */
+    private static double applyDouble(char op, double accumulated, double number) {
+        if (op == '+') {
+            return accumulated + number;
+        } else if (op == '-') {
+            return accumulated - number;
+        }
+        return accumulated * number;
+    }
+
+    /**
+     * Evalúa una operación de división (/).
+     * @param tokens Lista de tokens que representan la operación.
+     * @param startIndex Índice donde comienza la operación.
+     * @param endIndex Índice del paréntesis que cierra la operación.
+     * @return Resultado de la división (siempre Double).
+     */
+    private Object evaluateDiv(List<Token> tokens, int startIndex, int endIndex) {
+        if (startIndex >= endIndex) {
+            return new LispError("Error: división requiere al menos un operando");
+        }
+
+        double result = 0;
+
+        for (int i = startIndex; i < endIndex; i = nextIndex(tokens, i)) {
+            Object nestedResult = evaluateToken(tokens, i);
+            if (isError(nestedResult)) {
+                return nestedResult;
+            }
+            Object operand = LispNumbers.toNumber(nestedResult);
+            if (operand == null) {
+                return new LispError("Error: operando no numérico en división");
+            }
+            double number = ((Number) operand).doubleValue();
+            if (i == startIndex) {
+                result = number;
+                continue;
+            }
+            if (number == 0) {
+                return new LispError("Error: división por cero");
+            }
+            result /= number;
+        }
+        return result;
+    }
+
+    /**
+     * Evalúa una operación de potencia (^).
+     * Con base y exponentes enteros no negativos el resultado es entero exacto;
+     * en otro caso se calcula en double.
+     * @param tokens Lista de tokens que representan la operación.
+     * @param startIndex Índice donde comienza la operación.
+     * @param endIndex Índice del paréntesis que cierra la operación.
+     * @return Resultado de la potencia.
+     */
+    private Object evaluatePow(List<Token> tokens, int startIndex, int endIndex) {
+        if (startIndex >= endIndex) {
+            return new LispError("Error: potencia requiere al menos un operando");
+        }
+
+        Object firstResult = evaluateToken(tokens, startIndex);
+        if (isError(firstResult)) {
+            return firstResult;
+        }
+        Object integerResult = LispNumbers.toNumber(firstResult);
+        if (integerResult == null) {
+            return new LispError("Error: operando no numérico en potencia");
+        }
+        double doubleResult = 0;
+        if (integerResult instanceof Double) {
+            doubleResult = (Double) integerResult;
+            integerResult = null;
+        }
+
+        for (int i = nextIndex(tokens, startIndex); i < endIndex; i = nextIndex(tokens, i)) {
+            Object nestedResult = evaluateToken(tokens, i);
+            if (isError(nestedResult)) {
+                return nestedResult;
+            }
+            Object exponent = LispNumbers.toNumber(nestedResult);
+            if (exponent == null) {
+                return new LispError("Error: operando no numérico en potencia");
+            }
+            if (integerResult != null && exponent instanceof Long && (Long) exponent >= 0) {
+                try {
+                    integerResult = LispNumbers.pow(integerResult, (Long) exponent);
+                } catch (ArithmeticException e) {
+                    return new LispError(e.getMessage());
+                }
+                continue;
+            }
+            double base = integerResult != null ? ((Number) integerResult).doubleValue() : doubleResult;
+            integerResult = null;
+            doubleResult = Math.pow(base, ((Number) exponent).doubleValue());
+        }
+        if (integerResult != null) {
+            return integerResult;
+        }
+        return doubleResult;
+    }
+
+    /**
+     * Evalúa una operación de módulo (%).
+     * @param tokens Lista de tokens que representan la operación.
+     * @param startIndex Índice donde comienza la operación.
+     * @param endIndex Índice del paréntesis que cierra la operación.
+     * @return Resultado del módulo.
+     */
+    private Object evaluateMod(List<Token> tokens, int startIndex, int endIndex) {
+        if (startIndex >= endIndex) {
+            return new LispError("Error: módulo requiere al menos un operando");
+        }
+
+        Object firstResult = evaluateToken(tokens, startIndex);
+        if (isError(firstResult)) {
+            return firstResult;
+        }
+        Object result = LispNumbers.toNumber(firstResult);
+        if (result == null) {
+            return new LispError("Error: operando no numérico en módulo");
+        }
+
+        for (int i = nextIndex(tokens, startIndex); i < endIndex; i = nextIndex(tokens, i)) {
+            Object nestedResult = evaluateToken(tokens, i);
+            if (isError(nestedResult)) {
+                return nestedResult;
+            }
+            Object operand = LispNumbers.toNumber(nestedResult);
+            if (operand == null) {
+                return new LispError("Error: operando no numérico en módulo");
+            }
+            if (((Number) operand).doubleValue() == 0) {
+                return new LispError("Error: módulo por cero");
+            }
+            if (result instanceof Double || operand instanceof Double) {
+                result = ((Number) result).doubleValue() % ((Number) operand).doubleValue();
+            } else {
+                result = LispNumbers.remainder(result, operand);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Evalúa una operación de asignación (setq).
+     * @param tokens Lista de tokens que representan la operación.
+     * @param startIndex Índice donde comienza la operación.
+     * @param endIndex Índice del paréntesis que cierra la operación.
+     * @return Mensaje de confirmación de asignación.
+     */
+    private Object evaluateSetq(List<Token> tokens, int startIndex, int endIndex) {
+        if (endIndex < startIndex + 2) {
+            return new LispError("Error: setq mal formado");
+        }
+
+        Token nameToken = tokens.get(startIndex);
+        String varName = nameToken.getValue();
+
+        // El valor puede ser un número, una variable o una expresión entre paréntesis
+        Object valueResult = evaluateOperand(tokens, startIndex + 1);
+
+        // Una variable con tipo declarado se valida y se guarda con ese tipo
+        VariableTable table = env.currentTable();
+        byte declared = table.hasDeclarations() ? table.getDeclared(table.find(varName)) : VariableTable.EMPTY;
+        if (declared != VariableTable.EMPTY) {
+            Object error = assignDeclared(varName, declared, valueResult);
+            if (error != null) {
+                return error;
+            }
+        } else if (valueResult == UNBOXED_LONG) {
+            env.setVariable(varName, unboxedLong);
+        } else if (valueResult == UNBOXED_DOUBLE) {
+            env.setVariable(varName, unboxedDouble);
+        } else if (isError(valueResult)) {
+            return valueResult;
+        } else {
+            assignVariable(varName, valueResult);
+        }
+
+        // El mensaje de confirmación se construye una sola vez por sitio de setq
+        Object message = nameToken.getLiteral();
+        if (message == null) {
+            message = "Variable " + varName + " asignada";
+            nameToken.setLiteral(message);
+        }
+        return message;
+    }
+
+    /**
+     * Guarda un valor en una variable con tipo declarado, validando que sea compatible.
+     * Los enteros se aceptan en double; int exige que el valor quepa en 32 bits.
+     * @param name Nombre de la variable.
+     * @param type Tipo declarado (VariableTable.INT, LONG o DOUBLE).
+     * @param value Resultado de evaluateOperand (puede ser UNBOXED_LONG o UNBOXED_DOUBLE).
+     * @return null si se guardó, o un mensaje de error.
+     */
+    private Object assignDeclared(String name, byte type, Object value) {
+        if (isError(value)) {
+            return value;
+        }
+        if (type == VariableTable.DOUBLE) {
+            if (value == UNBOXED_DOUBLE) {
+                env.setVariable(name, unboxedDouble);
+            } else if (value == UNBOXED_LONG) {
+                env.setVariable(name, (double) unboxedLong);
+            } else if (value instanceof Number) {
+                env.setVariable(name, ((Number) value).doubleValue());
+            } else {
+                return new LispError("Error: " + name + " está declarada como double");
+            }
+            return null;
+        }
+
+        long number;
+        if (value == UNBOXED_LONG) {
+            number = unboxedLong;
+        } else if (value instanceof Long) {
+            number = (Long) value;
+        } else {
+            return new LispError("Error: " + name + " está declarada como " + (type == VariableTable.INT ? "int" : "long"));
+        }
+        if (type == VariableTable.INT && (int) number != number) {
+            return new LispError("Error: " + name + " fuera del rango de int");
+        }
+        env.setVariable(name, number);
+        return null;
+    }
+
+    /**
+     * Evalúa una declaración de tipos (declare), por ejemplo (declare (int i n) (double x)).
+     * Las variables quedan declaradas en el ámbito actual.
+     * @param tokens Lista de tokens que representan la declaración.
+     * @param startIndex Índice del primer grupo de la declaración.
+     * @param endIndex Índice del paréntesis que cierra la declaración.
+     * @return Mensaje de confirmación, o un mensaje de error.
+     */
+    private Object evaluateDeclare(List<Token> tokens, int startIndex, int endIndex) {
+        Object error = parseDeclare(tokens, startIndex, endIndex, null, null);
+        return error != null ? error : "Tipos declarados";
+    }
+
+    /**
+     * Recorre los grupos (tipo nombre...) de un declare.
+     * Si parameters es null declara cada nombre en el ámbito actual; si no, guarda el tipo
+     * de cada nombre en la posición del parámetro correspondiente de types.
+     * @param tokens Lista de tokens.
+     * @param startIndex Índice del primer grupo.
+     * @param endIndex Índice del paréntesis que cierra el declare.
+     * @param parameters Parámetros de la función, o null.
+     * @param types Tipos de los parámetros a completar, o null.
+     * @return null si la declaración es válida, o un mensaje de error.
+     */
+    private Object parseDeclare(List<Token> tokens, int startIndex, int endIndex,
+                                List<Token> parameters, byte[] types) {
+        for (int i = startIndex; i < endIndex; i = nextIndex(tokens, i)) {
+            Token group = tokens.get(i);
+            if (!group.getType().equals("PARENTHESIS") || !group.getValue().equals("(")) {
+                return new LispError("Error: declare mal formado");
+            }
+            int groupEnd = findMatchingParenthesis(tokens, i);
+            if (groupEnd == -1 || groupEnd < i + 3) {
+                return new LispError("Error: declare mal formado");
+            }
+            byte type = declaredType(tokens.get(i + 1).getValue());
+            if (type == VariableTable.EMPTY) {
+                return new LispError("Error: tipo desconocido en declare: " + tokens.get(i + 1).getValue());
+            }
+            for (int j = i + 2; j < groupEnd; j++) {
+                Token name = tokens.get(j);
+                if (!name.getType().equals("SYMBOL")) {
+                    return new LispError("Error: declare mal formado");
+                }
+                if (parameters == null) {
+                    env.declareVariable(name.getValue(), type);
+                    continue;
+                }
+                int position = -1;
+                for (int k = 0; k < parameters.size(); k++) {
+                    if (parameters.get(k).getValue().equals(name.getValue())) {
+                        position = k;
+                        break;
+                    }
+                }
+                if (position == -1) {
+                    return new LispError("Error: declare de un parámetro inexistente: " + name.getValue());
+                }
+                types[position] = type;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Convierte el nombre de un tipo de declare en su código.
+     * @param typeName "int", "long" o "double".
+     * @return VariableTable.INT, LONG o DOUBLE, o EMPTY si el tipo no existe.
+     */
+    private static byte declaredType(String typeName) {
+        switch (typeName) {
+            case "int":
+                return VariableTable.INT;
+            case "long":
+                return VariableTable.LONG;
+            case "double":
+                return VariableTable.DOUBLE;
+            default:
+                return VariableTable.EMPTY;
+        }
+    }
+
+    /**
+     * Indica si en el índice dado comienza una forma (declare ...).
+     */
+    private boolean isDeclareForm(List<Token> tokens, int index) {
+        return index + 1 < tokens.size()
+                && tokens.get(index).getValue().equals("(")
+                && tokens.get(index).getType().equals("PARENTHESIS")
+                && tokens.get(index + 1).getValue().equals("declare");
+    }
+
+    /**
+     * Guarda un valor evaluado en una variable: como número, como cadena o como valor compuesto.
+     * @param name Nombre de la variable.
+     * @param value Valor evaluado.
+     */
+    private void assignVariable(String name, Object value) {
+        if (value instanceof Number) {
+            env.setVariable(name, (Number) value);
+        } else if (value instanceof String) {
+            env.setVariable(name, (String) value);
+        } else {
+            env.setVariableValue(name, value);
+        }
+    }
+
+    /**
+     * Evalúa una operación de impresión (print).
+     * @param tokens Lista de tokens que representan la operación.
+     * @param startIndex Índice donde comienza la operación.
+     * @param endIndex Índice del paréntesis que cierra la operación.
+     * @return Valor que se imprimió.
+     */
+    private Object evaluatePrint(List<Token> tokens, int startIndex, int endIndex) {
+        if (startIndex >= endIndex) {
+            return new LispError("Error: print requiere un operando");
+        }
+        Object result = evaluateToken(tokens, startIndex);
+        if (output == null) {
+            System.out.println(result);
+        } else {
+            output.println(result);
+            output.flush();
+        }
+        return result;
+    }
+
+    /**
+     * Evalúa un token individual o expresión anidada.
+     * @param tokens Lista de tokens.
+     * @param index Índice del token a evaluar.
+     * @return Resultado de la evaluación del token.
+     */
+    private Object evaluateToken(List<Token> tokens, int index) {
+        if (index >= tokens.size()) {
+            return new LispError("Error: índice fuera de rango");
+        }
+
+        Token token = tokens.get(index);
+
+        if (token.getType().equals("NUMBER")) {
+            return evaluateNumber(token);
+        }
+        else if (token.getType().equals("SYMBOL")) {
+            return evaluateVariable(token.getValue());
+        }
+        else if (token.getType().equals("STRING")) {
+            return token.getValue();
+        }
+        else if (token.getType().equals("PARENTHESIS") && token.getValue().equals("(")) {
+            // Manejar expresiones anidadas
+            return evaluateForm(tokens, index);
+        }
+
+        return new LispError("Error: token no válido");
+    }
+
+    /**
+     * Evalúa un operando numérico sin crear cajas en el caso común.
+     * Las variables numéricas y las sumas, restas y productos dejan su valor en unboxedLong
+     * o unboxedDouble y devuelven la marca UNBOXED_LONG o UNBOXED_DOUBLE; el resto se
+     * evalúa como evaluateToken.
+     * @param tokens Lista de tokens.
+     * @param index Índice del operando.
+     * @return UNBOXED_LONG, UNBOXED_DOUBLE, o el resultado normal de la evaluación.
+     */
+    private Object evaluateOperand(List<Token> tokens, int index) {
+        if (index >= tokens.size()) {
+            return new LispError("Error: índice fuera de rango");
+        }
+        Token token = tokens.get(index);
+        String type = token.getType();
+
+        if (type.equals("NUMBER")) {
+            return evaluateNumber(token);
+        }
+        if (type.equals("SYMBOL")) {
+            String name = token.getValue();
+            VariableTable table = env.lookupTable(name);
+            if (table != null) {
+                int slot = table.find(name);
+                byte kind = table.getKind(slot);
+                if (kind == VariableTable.LONG) {
+                    unboxedLong = table.getLong(slot);
+                    return UNBOXED_LONG;
+                }
+                if (kind == VariableTable.DOUBLE) {
+                    unboxedDouble = table.getDouble(slot);
+                    return UNBOXED_DOUBLE;
+                }
+            }
+            return evaluateVariable(name);
+        }
+        if (type.equals("PARENTHESIS") && token.getValue().equals("(") && index + 1 < tokens.size()) {
+            Token head = tokens.get(index + 1);
+            if (head.getType().equals("SYMBOL")) {
+                String command = head.getValue();
+                char operator = command.length() == 1 ? command.charAt(0) : 0;
+                if (operator == '+' || operator == '-' || operator == '*') {
+                    int endIndex = findMatchingParenthesis(tokens, index);
+                    if (endIndex == -1) {
+                        return new LispError("Error: paréntesis no balanceados");
+                    }
+                    String operationName = operator == '+' ? "suma" : operator == '-' ? "resta" : "multiplicación";
+                    return evaluateArithmetic(tokens, index + 2, endIndex, operator, operationName, true);
+                }
+                // Una llamada ya expandida en este sitio se evalúa también sin caja
+                CallSiteCache cache = head.getCallSiteCache();
+                if (cache != null && cache.getInlinedBody() != null && cache.isValid(env)) {
+                    return evaluateOperand(cache.getInlinedBody(), 0);
+                }
+            }
+        }
+        return evaluateToken(tokens, index);
+    }
+
+    /**
+     * Convierte las marcas UNBOXED_LONG y UNBOXED_DOUBLE en su valor con caja;
+     * cualquier otro valor se devuelve igual.
+     * @param value Resultado de evaluateOperand.
+     * @return El valor con caja.
+     */
+    private Object boxed(Object value) {
+        if (value == UNBOXED_LONG) {
+            return unboxedLong;
+        }
+        return value == UNBOXED_DOUBLE ? (Object) unboxedDouble : value;
+    }
+
+    /**
+     * Obtiene el valor de un literal numérico; se convierte una sola vez y queda en el token.
+     * @param token Token de tipo NUMBER.
+     * @return El valor como Long, BigInteger o Double.
+     */
+    private Object evaluateNumber(Token token) {
+        Object value = token.getLiteral();
+        if (value == null) {
+            value = LispNumbers.parseNumber(token.getValue());
+            token.setLiteral(value);
+        }
+        return value;
+    }
+
+    /**
+     * Obtiene el valor de una variable.
+     * @param name Nombre de la variable.
+     * Si no hay una variable común con ese nombre se busca entre las variables compartidas.
+     * @return El valor numérico, de cadena o compuesto; 0 si la variable no existe.
+     */
+    private Object evaluateVariable(String name) {
+        VariableTable table = env.lookupTable(name);
+        if (table == null) {
+            Object shared = env.getSharedVariable(name);
+            return shared != null ? shared : (Object) 0L;
+        }
+        int slot = table.find(name);
+        switch (table.getKind(slot)) {
+            case VariableTable.LONG:
+                return table.getLong(slot);
+            case VariableTable.DOUBLE:
+                return table.getDouble(slot);
+            default:
+                return table.getObject(slot);
+        }
+    }
+
+    /**
+     * Evalúa una definición de función (defun).
+     * @param tokens Lista de tokens que representan la definición.
      * @param startIndex Índice donde comienza la definición.
+     * @param endIndex Índice del paréntesis que cierra la definición.
      * @return Mensaje de confirmación de definición.
      */
-    private String evaluateDefun(List<Token> tokens, int startIndex) {
-        if (tokens.size() < startIndex + 3) {
-            return "Error: defun mal formado";
+    private Object evaluateDefun(List<Token> tokens, int startIndex, int endIndex) {
+        if (endIndex < startIndex + 3) {
+            return new LispError("Error: defun mal formado");
+        }
+
+        String functionName = tokens.get(startIndex).getValue();
+
+        // Obtener los parámetros
+        int paramsStart = startIndex + 1;
+        if (!tokens.get(paramsStart).getType().equals("PARENTHESIS") || !tokens.get(paramsStart).getValue().equals("(")) {
+            return new LispError("Error: los parámetros deben estar entre paréntesis");
+        }
+        int paramsEnd = findMatchingParenthesis(tokens, paramsStart);
+        List<Token> parameters = tokens.subList(paramsStart + 1, paramsEnd);
+
+        // El cuerpo son todas las formas completas que siguen a los parámetros
+        List<Token> body = tokens.subList(paramsEnd + 1, endIndex);
+
+        // Un declare inicial solo puede nombrar parámetros; se valida al definir
+        if (isDeclareForm(tokens, paramsEnd + 1)) {
+            Object error = parseDeclare(tokens, paramsEnd + 3, findMatchingParenthesis(tokens, paramsEnd + 1),
+                    parameters, new byte[parameters.size()]);
+            if (error != null) {
+                return error;
+            }
+        }
+
+        // Guardar la función en el entorno (parámetros y cuerpo)
+        env.defineFunction(functionName, parameters, body);
+        return "Función " + functionName + " definida";
+    }
+
+    /**
+     * Evalúa una estructura condicional (if).
+     * @param tokens Lista de tokens que representan la condición.
+     * @param startIndex Índice donde comienza la condición.
+     * @param endIndex Índice del paréntesis que cierra la estructura.
+     * @return Resultado de la rama evaluada.
+     */
+    private Object evaluateIf(List<Token> tokens, int startIndex, int endIndex) {
+        // Verificar estructura básica
+        if (endIndex < startIndex + 2) {
+            return new LispError("Error: Estructura if incompleta");
+        }
+
+        // Evaluar la condición
+        Object conditionResult = evaluateToken(tokens, startIndex);
+        if (isError(conditionResult)) {
+            return conditionResult;
+        }
+
+        // Determinar si la condición es verdadera (1) o falsa (0)
+        boolean condition = isTruthy(conditionResult);
+
+        // Encontrar el inicio del bloque then
+        int thenStart = nextIndex(tokens, startIndex);
+        if (thenStart >= endIndex) {
+            return new LispError("Error: falta rama then");
+        }
+
+        // Rama else (opcional)
+        int elseStart = nextIndex(tokens, thenStart);
+
+        // Ejecutar solo la rama correspondiente
+        if (condition) {
+            return evaluateToken(tokens, thenStart);
+        } else {
+            return elseStart < endIndex ? evaluateToken(tokens, elseStart) : "";
+        }
+    }
+
+    /**
+     * Determina si un valor se considera "verdadero" en LISP.
+     * @param value Valor a evaluar.
+     * @return true si el valor es truthy, false en caso contrario.
+     */
+    private boolean isTruthy(Object value) {
+        if (value == LispCons.EMPTY) {
+            return false;
+        }
+        if (value instanceof Long) {
+            return (Long) value != 0;
+        }
+        if (value instanceof BigInteger) {
+            return ((BigInteger) value).signum() != 0;
+        }
+        if (value instanceof Double) {
+            return (Double) value != 0.0;
+        }
+        if (value == null || value.toString().isEmpty()) {
+            return false;
+        }
+        try {
+            double num = Double.parseDouble(value.toString());
+            return num != 0.0;
+        } catch (NumberFormatException e) {
+            return true; // Cualquier string no vacío es verdadero
+        }
+    }
+
+    /**
+     * Compara numéricamente los dos operandos de > o <.
+     * @return El resultado de la comparación, o null si algún operando no es numérico.
+     */
+    private Integer compareOperands(Object left, Object right) {
+        Object leftNumber = LispNumbers.toNumber(left);
+        Object rightNumber = LispNumbers.toNumber(right);
+        if (leftNumber == null || rightNumber == null) {
+            return null;
+        }
+        if (leftNumber instanceof Double || rightNumber instanceof Double) {
+            return Double.compare(((Number) leftNumber).doubleValue(), ((Number) rightNumber).doubleValue());
+        }
+        return LispNumbers.compare(leftNumber, rightNumber);
+    }
+
+    private Object evaluateGreaterThan(List<Token> tokens, int startIndex, int endIndex) {
+        return evaluateComparison(tokens, startIndex, endIndex, '>');
+    }
+
+    /**
+     * Evalúa > o < entre dos operandos.
+     * Cuando ambos operandos llegan sin caja la comparación es primitiva.
+     * @param tokens Lista de tokens que representan la comparación.
+     * @param startIndex Índice del primer operando.
+     * @param endIndex Índice del paréntesis que cierra la comparación.
+     * @param operator '>' o '<'.
+     * @return 1 si la comparación es verdadera, 0 si no, o un mensaje de error.
+     */
+    private Object evaluateComparison(List<Token> tokens, int startIndex, int endIndex, char operator) {
+        int rightIndex = nextIndex(tokens, startIndex);
+        if (rightIndex >= endIndex) {
+            return new LispError("Error: " + operator + " requiere dos operandos");
+        }
+        Object left = evaluateOperand(tokens, startIndex);
+        if (isError(left)) {
+            return left;
+        }
+        long leftLong = unboxedLong;
+        double leftDouble = unboxedDouble;
+        Object right = evaluateOperand(tokens, rightIndex);
+
+        int comparison;
+        if (left == UNBOXED_LONG && right == UNBOXED_LONG) {
+            comparison = Long.compare(leftLong, unboxedLong);
+        } else if ((left == UNBOXED_LONG || left == UNBOXED_DOUBLE)
+                && (right == UNBOXED_LONG || right == UNBOXED_DOUBLE)) {
+            comparison = Double.compare(left == UNBOXED_LONG ? leftLong : leftDouble,
+                    right == UNBOXED_LONG ? unboxedLong : unboxedDouble);
+        } else {
+            if (left == UNBOXED_LONG) {
+                left = leftLong;
+            } else if (left == UNBOXED_DOUBLE) {
+                left = leftDouble;
+            }
+            right = boxed(right);
+            if (isError(right)) {
+                return right;
+            }
+            Integer result = compareOperands(left, right);
+            if (result == null) {
+                return new LispError("Error: operandos no numéricos para " + operator);
+            }
+            comparison = result;
+        }
+        return (operator == '>' ? comparison > 0 : comparison < 0) ? 1L : 0L;
+    }
+
+    private Object evaluateWhile(List<Token> tokens, int startIndex, int endIndex) {
+        int bodyStart = nextIndex(tokens, startIndex);
+        if (bodyStart >= endIndex) {
+            return new LispError("Error: bucle while mal formado");
+        }
+
+        Object result = 0L; // Valor por defecto si el bucle no se ejecuta
+
+        while (true) {
+            // Evaluar la condición
+            Object conditionResult = evaluateToken(tokens, startIndex);
+            if (isError(conditionResult)) {
+                return conditionResult;
+            }
+
+            if (!isTruthy(conditionResult)) {
+                break;
+            }
+
+            // Ejecutar el cuerpo del bucle
+            result = evaluateSequence(tokens, bodyStart, endIndex);
+            if (isError(result)) {
+                return result;
+            }
+        }
+
+        return result;
+    }
+
+    private Object evaluateFor(List<Token> tokens, int startIndex, int endIndex) {
+        int conditionIndex = nextIndex(tokens, startIndex);
+        int bodyIndex = conditionIndex < endIndex ? nextIndex(tokens, conditionIndex) : endIndex;
+        int updateIndex = bodyIndex < endIndex ? nextIndex(tokens, bodyIndex) : endIndex;
+        if (updateIndex >= endIndex) {
+            return new LispError("Error: bucle for mal formado");
+        }
+
+        // Inicialización
+        Object initResult = evaluateToken(tokens, startIndex);
+        if (isError(initResult)) {
+            return initResult;
+        }
+
+        // El patrón (for (setq i a) (< i n) cuerpo (setq i (+ i 1))) corre como bucle contado
+        String counter = countedLoopVariable(tokens, startIndex, conditionIndex, updateIndex);
+        if (counter != null) {
+            return evaluateCountedFor(tokens, counter, conditionIndex, bodyIndex, updateIndex);
+        }
+        return evaluateForLoop(tokens, conditionIndex, bodyIndex, updateIndex, 0L);
+    }
+
+    /**
+     * Ejecuta las iteraciones de un for genérico: condición, cuerpo y actualización.
+     * @param tokens Lista de tokens.
+     * @param conditionIndex Índice de la condición.
+     * @param bodyIndex Índice del cuerpo.
+     * @param updateIndex Índice de la actualización.
+     * @param result Resultado a devolver si no se ejecuta ninguna iteración.
+     * @return El resultado de la última ejecución del cuerpo, o un mensaje de error.
+     */
+    private Object evaluateForLoop(List<Token> tokens, int conditionIndex, int bodyIndex, int updateIndex,
+                                   Object result) {
+        while (true) {
+            // Condición
+            Object conditionResult = evaluateToken(tokens, conditionIndex);
+            if (isError(conditionResult)) {
+                return conditionResult;
+            }
+
+            if (!isTruthy(conditionResult)) {
+                break;
+            }
+
+            // Cuerpo del bucle
+            result = evaluateToken(tokens, bodyIndex);
+            if (isError(result)) {
+                return result;
+            }
+
+            // Actualización
+            Object updateResult = evaluateToken(tokens, updateIndex);
+            if (isError(updateResult)) {
+                return updateResult;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Reconoce un for contado: (setq i ...) como inicio, (< i n) como condición con n un número
+     * o una variable, y (setq i (+ i 1)) como actualización. La variable no debe tener tipo declarado.
+     * @return El nombre de la variable del bucle, o null si el for no sigue el patrón.
+     */
+    private String countedLoopVariable(List<Token> tokens, int initIndex, int conditionIndex, int updateIndex) {
+        if (!isFormWithHead(tokens, initIndex, "setq") || !isFormWithHead(tokens, conditionIndex, "<")
+                || !isFormWithHead(tokens, updateIndex, "setq")) {
+            return null;
+        }
+        String name = tokens.get(initIndex + 2).getValue();
+        if (!tokens.get(initIndex + 2).getType().equals("SYMBOL")) {
+            return null;
+        }
+
+        // Condición (< i n)
+        int boundIndex = conditionIndex + 3;
+        if (!tokens.get(conditionIndex + 2).getValue().equals(name)
+                || findMatchingParenthesis(tokens, conditionIndex) != boundIndex + 1
+                || tokens.get(boundIndex).getType().equals("PARENTHESIS")) {
+            return null;
+        }
+
+        // Actualización (setq i (+ i 1)) o (setq i (+ 1 i))
+        if (findMatchingParenthesis(tokens, updateIndex) != updateIndex + 8
+                || !tokens.get(updateIndex + 2).getValue().equals(name)
+                || !isFormWithHead(tokens, updateIndex + 3, "+")) {
+            return null;
+        }
+        String first = tokens.get(updateIndex + 5).getValue();
+        String second = tokens.get(updateIndex + 6).getValue();
+        if (!(first.equals(name) && second.equals("1")) && !(first.equals("1") && second.equals(name))) {
+            return null;
+        }
+
+        VariableTable table = env.currentTable();
+        if (table.hasDeclarations() && table.getDeclared(table.find(name)) != VariableTable.EMPTY) {
+            return null;
+        }
+        return name;
+    }
+
+    /**
+     * Indica si en el índice dado comienza una forma cuyo primer símbolo es head.
+     */
+    private boolean isFormWithHead(List<Token> tokens, int index, String head) {
+        return index + 2 < tokens.size()
+                && tokens.get(index).getType().equals("PARENTHESIS")
+                && tokens.get(index).getValue().equals("(")
+                && tokens.get(index + 1).getValue().equals(head);
+    }
+
+    /**
+     * Ejecuta un for contado con la variable en una ranura de la tabla del ámbito actual:
+     * la condición y el incremento se hacen con long primitivos, sin evaluar setq.
+     * Si la variable deja de ser entera o el límite no es entero, continúa como for genérico.
+     * @param tokens Lista de tokens.
+     * @param name Variable del bucle.
+     * @param conditionIndex Índice de la condición.
+     * @param bodyIndex Índice del cuerpo.
+     * @param updateIndex Índice de la actualización.
+     * @return El resultado de la última ejecución del cuerpo, o un mensaje de error.
+     */
+    private Object evaluateCountedFor(List<Token> tokens, String name, int conditionIndex, int bodyIndex,
+                                      int updateIndex) {
+        VariableTable table = env.currentTable();
+        int boundIndex = conditionIndex + 3;
+        int slot = -1;
+        Object result = 0L;
+
+        while (true) {
+            slot = table.refind(name, slot);
+            if (table.getKind(slot) != VariableTable.LONG) {
+                break;
+            }
+            long counter = table.getLong(slot);
+            Object bound = evaluateOperand(tokens, boundIndex);
+            long limit;
+            if (bound == UNBOXED_LONG) {
+                limit = unboxedLong;
+            } else if (bound instanceof Long) {
+                limit = (Long) bound;
+            } else {
+                break;
+            }
+            if (counter >= limit) {
+                return result;
+            }
+
+            result = evaluateToken(tokens, bodyIndex);
+            if (isError(result)) {
+                return result;
+            }
+
+            // El cuerpo pudo cambiar la variable: se vuelve a leer antes de incrementar
+            slot = table.refind(name, slot);
+            if (table.getKind(slot) != VariableTable.LONG || table.getLong(slot) == Long.MAX_VALUE) {
+                Object updateResult = evaluateToken(tokens, updateIndex);
+                if (isError(updateResult)) {
+                    return updateResult;
+                }
+                break;
+            }
+            table.putLongAt(slot, table.getLong(slot) + 1);
+        }
+        return evaluateForLoop(tokens, conditionIndex, bodyIndex, updateIndex, result);
+    }
+
+    /**
+     * Evalúa un bucle contado (dotimes (i n) cuerpo...) o (dotimes (i n resultado) cuerpo...).
+     * La cantidad se evalúa una sola vez y la variable toma los valores 0 a n - 1 en una
+     * ranura de la tabla del ámbito actual, sin evaluar condición ni actualización.
+     * @param tokens Lista de tokens que representan el bucle.
+     * @param startIndex Índice de la especificación (i n).
+     * @param endIndex Índice del paréntesis que cierra el bucle.
+     * @return El valor de la forma resultado si existe, si no el de la última ejecución del cuerpo.
+     */
+    private Object evaluateDotimes(List<Token> tokens, int startIndex, int endIndex) {
+        if (startIndex >= endIndex || !tokens.get(startIndex).getValue().equals("(")
+                || !tokens.get(startIndex).getType().equals("PARENTHESIS")) {
+            return new LispError("Error: dotimes mal formado");
+        }
+        int specEnd = findMatchingParenthesis(tokens, startIndex);
+        if (specEnd == -1 || specEnd < startIndex + 3 || !tokens.get(startIndex + 1).getType().equals("SYMBOL")) {
+            return new LispError("Error: dotimes mal formado");
+        }
+        String name = tokens.get(startIndex + 1).getValue();
+        int countIndex = startIndex + 2;
+        int resultIndex = nextIndex(tokens, countIndex);
+
+        long limit;
+        Object count = evaluateOperand(tokens, countIndex);
+        if (count == UNBOXED_LONG) {
+            limit = unboxedLong;
+        } else {
+            count = boxed(count);
+            if (isError(count)) {
+                return count;
+            }
+            if (!(count instanceof Long)) {
+                return new LispError("Error: dotimes requiere una cantidad entera");
+            }
+            limit = (Long) count;
+        }
+
+        VariableTable table = env.currentTable();
+        int slot = table.find(name);
+        byte declared = table.getDeclared(slot);
+        if (declared == VariableTable.DOUBLE || (declared == VariableTable.INT && limit > Integer.MAX_VALUE)) {
+            return new LispError("Error: " + name + " no puede ser la variable de este dotimes");
+        }
+
+        env.setVariable(name, 0L);
+        Object result = 0L;
+        for (long i = 0; i < limit; i++) {
+            slot = table.refind(name, slot);
+            table.putLongAt(slot, i);
+            result = evaluateSequence(tokens, specEnd + 1, endIndex);
+            if (isError(result)) {
+                return result;
+            }
+        }
+
+        if (resultIndex < specEnd) {
+            env.setVariable(name, Math.max(limit, 0));
+            return evaluateToken(tokens, resultIndex);
+        }
+        return result;
+    }
+
+    /**
+     * Evalúa (make-vector n), (make-vector n tipo) o (make-vector n tipo valor).
+     * El tipo es int, long (por omisión) o double; el vector empieza en cero o en valor.
+     * @param tokens Lista de tokens que representan la operación.
+     * @param startIndex Índice del tamaño.
+     * @param endIndex Índice del paréntesis que cierra la operación.
+     * @return El vector nuevo, o un mensaje de error.
+     */
+    private Object evaluateMakeVector(List<Token> tokens, int startIndex, int endIndex) {
+        if (startIndex >= endIndex) {
+            return new LispError("Error: make-vector requiere un tamaño");
+        }
+        Object size = boxed(evaluateOperand(tokens, startIndex));
+        if (isError(size)) {
+            return size;
+        }
+        if (!(size instanceof Long) || (Long) size < 0 || (Long) size > MAX_VECTOR_LENGTH) {
+            return new LispError("Error: tamaño de vector no válido");
+        }
+
+        byte type = VariableTable.LONG;
+        int typeIndex = nextIndex(tokens, startIndex);
+        int initIndex = endIndex;
+        if (typeIndex < endIndex) {
+            type = declaredType(tokens.get(typeIndex).getValue());
+            if (type == VariableTable.EMPTY) {
+                return new LispError("Error: tipo de vector desconocido: " + tokens.get(typeIndex).getValue());
+            }
+            initIndex = nextIndex(tokens, typeIndex);
+        }
+
+        LispVector vector = LispVector.create(type, (int) (long) (Long) size);
+        if (initIndex < endIndex) {
+            Object init = boxed(evaluateOperand(tokens, initIndex));
+            if (isError(init)) {
+                return init;
+            }
+            if (!vector.accepts(init)) {
+                return new LispError("Error: valor no compatible con el vector en make-vector");
+            }
+            vector.fill(init);
+        }
+        return vector;
+    }
+
+    /**
+     * Evalúa el operando que debe ser un vector.
+     * @param tokens Lista de tokens.
+     * @param index Índice del operando.
+     * @param operationName Nombre de la operación para el mensaje de error.
+     * @return El LispVector, o un mensaje de error.
+     */
+    private Object evaluateVector(List<Token> tokens, int index, String operationName) {
+        Object value = evaluateToken(tokens, index);
+        if (isError(value) || value instanceof LispVector) {
+            return value;
+        }
+        return new LispError("Error: " + operationName + " requiere un vector");
+    }
+
+    /**
+     * Evalúa la posición de un elemento de un vector.
+     * @return La posición, o -1 si no es un entero dentro del vector.
+     */
+    private int evaluateVectorIndex(List<Token> tokens, int index, LispVector vector) {
+        Object position = evaluateOperand(tokens, index);
+        long value;
+        if (position == UNBOXED_LONG) {
+            value = unboxedLong;
+        } else if (position instanceof Long) {
+            value = (Long) position;
+        } else {
+            return -1;
+        }
+        return value >= 0 && value < vector.length() ? (int) value : -1;
+    }
+
+    /**
+     * Evalúa (vref vector i).
+     * @return El elemento i del vector.
+     */
+    private Object evaluateVref(List<Token> tokens, int startIndex, int endIndex) {
+        int positionIndex = nextIndex(tokens, startIndex);
+        if (positionIndex >= endIndex) {
+            return new LispError("Error: vref requiere un vector y un índice");
+        }
+        Object vector = evaluateVector(tokens, startIndex, "vref");
+        if (!(vector instanceof LispVector)) {
+            return vector;
+        }
+        int position = evaluateVectorIndex(tokens, positionIndex, (LispVector) vector);
+        if (position < 0) {
+            return new LispError("Error: índice fuera de rango en vref");
+        }
+        return ((LispVector) vector).get(position);
+    }
+
+    /**
+     * Evalúa (vset vector i valor).
+     * @return El valor guardado.
+     */
+    private Object evaluateVset(List<Token> tokens, int startIndex, int endIndex) {
+        int positionIndex = nextIndex(tokens, startIndex);
+        int valueIndex = positionIndex < endIndex ? nextIndex(tokens, positionIndex) : endIndex;
+        if (valueIndex >= endIndex) {
+            return new LispError("Error: vset requiere un vector, un índice y un valor");
+        }
+        Object vector = evaluateVector(tokens, startIndex, "vset");
+        if (!(vector instanceof LispVector)) {
+            return vector;
+        }
+        LispVector target = (LispVector) vector;
+        int position = evaluateVectorIndex(tokens, positionIndex, target);
+        if (position < 0) {
+            return new LispError("Error: índice fuera de rango en vset");
+        }
+        Object value = evaluateOperand(tokens, valueIndex);
+        if (value == UNBOXED_LONG && target.getType() == VariableTable.LONG) {
+            target.setLong(position, unboxedLong);
+            return unboxedLong;
+        }
+        value = boxed(value);
+        if (isError(value)) {
+            return value;
+        }
+        if (!target.accepts(value)) {
+            return new LispError("Error: valor no compatible con el vector en vset");
+        }
+        target.set(position, value);
+        return value;
+    }
+
+    /**
+     * Evalúa (vlength v), (vsum v), (vmin v) o (vmax v).
+     * @param operationName Nombre de la operación.
+     * @return El resultado de la operación sobre todo el vector.
+     */
+    private Object evaluateVectorReduction(List<Token> tokens, int startIndex, int endIndex, String operationName) {
+        if (startIndex >= endIndex) {
+            return new LispError("Error: " + operationName + " requiere un vector");
+        }
+        Object value = evaluateVector(tokens, startIndex, operationName);
+        if (!(value instanceof LispVector)) {
+            return value;
+        }
+        LispVector vector = (LispVector) value;
+        switch (operationName) {
+            case "vlength":
+                return (long) vector.length();
+            case "vsum":
+                return vector.sum();
+            default:
+                if (vector.length() == 0) {
+                    return new LispError("Error: " + operationName + " de un vector vacío");
+                }
+                return operationName.equals("vmin") ? vector.min() : vector.max();
+        }
+    }
+
+    /**
+     * Evalúa (vdot a b), el producto punto de dos vectores del mismo tamaño.
+     */
+    private Object evaluateVdot(List<Token> tokens, int startIndex, int endIndex) {
+        int secondIndex = nextIndex(tokens, startIndex);
+        if (secondIndex >= endIndex) {
+            return new LispError("Error: vdot requiere dos vectores");
+        }
+        Object first = evaluateVector(tokens, startIndex, "vdot");
+        if (!(first instanceof LispVector)) {
+            return first;
+        }
+        Object second = evaluateVector(tokens, secondIndex, "vdot");
+        if (!(second instanceof LispVector)) {
+            return second;
+        }
+        if (((LispVector) first).length() != ((LispVector) second).length()) {
+            return new LispError("Error: vectores de distinto tamaño en vdot");
+        }
+        return ((LispVector) first).dot((LispVector) second);
+    }
+
+    /**
+     * Evalúa (vmap+ a b): suma elemento a elemento de dos vectores, o de un vector y un número.
+     * @return Un vector nuevo con el resultado.
+     */
+    private Object evaluateVmapAdd(List<Token> tokens, int startIndex, int endIndex) {
+        int secondIndex = nextIndex(tokens, startIndex);
+        if (secondIndex >= endIndex) {
+            return new LispError("Error: vmap+ requiere un vector y un vector o número");
+        }
+        Object first = evaluateVector(tokens, startIndex, "vmap+");
+        if (!(first instanceof LispVector)) {
+            return first;
+        }
+        Object second = boxed(evaluateOperand(tokens, secondIndex));
+        if (isError(second)) {
+            return second;
+        }
+        try {
+            if (second instanceof LispVector) {
+                if (((LispVector) first).length() != ((LispVector) second).length()) {
+                    return new LispError("Error: vectores de distinto tamaño en vmap+");
+                }
+                return ((LispVector) first).add((LispVector) second);
+            }
+            Object number = LispNumbers.toNumber(second);
+            if (number == null) {
+                return new LispError("Error: operando no numérico en vmap+");
+            }
+            return ((LispVector) first).add((Number) number);
+        } catch (ArithmeticException e) {
+            return new LispError(e.getMessage());
+        }
+    }
+
+    /**
+     * Evalúa (vfill v valor): llena el vector con el valor.
+     * @return El mismo vector.
+     */
+    private Object evaluateVfill(List<Token> tokens, int startIndex, int endIndex) {
+        int valueIndex = nextIndex(tokens, startIndex);
+        if (valueIndex >= endIndex) {
+            return new LispError("Error: vfill requiere un vector y un valor");
+        }
+        Object vector = evaluateVector(tokens, startIndex, "vfill");
+        if (!(vector instanceof LispVector)) {
+            return vector;
+        }
+        Object value = boxed(evaluateOperand(tokens, valueIndex));
+        if (isError(value)) {
+            return value;
+        }
+        if (!((LispVector) vector).accepts(value)) {
+            return new LispError("Error: valor no compatible con el vector en vfill");
+        }
+        ((LispVector) vector).fill(value);
+        return vector;
+    }
+
+    /**
+     * Evalúa (make-table) o (make-table n), donde n es la cantidad de entradas esperada.
+     * @return La tabla nueva, o un mensaje de error.
+     */
+    private Object evaluateMakeTable(List<Token> tokens, int startIndex, int endIndex) {
+        if (startIndex >= endIndex) {
+            return new LispTable(0);
+        }
+        Object size = boxed(evaluateOperand(tokens, startIndex));
+        if (isError(size)) {
+            return size;
+        }
+        if (!(size instanceof Long) || (Long) size < 0 || (Long) size > MAX_VECTOR_LENGTH) {
+            return new LispError("Error: tamaño de tabla no válido");
+        }
+        return new LispTable((int) (long) (Long) size);
+    }
+
+    /**
+     * Evalúa (table-get t clave), (table-get t clave omision), (table-put t clave valor),
+     * (table-remove t clave) o (table-count t).
+     * table-get de una clave que no está devuelve omision, o 0 como una variable no definida.
+     * table-put devuelve el valor guardado y table-remove 1 si la clave estaba, 0 si no.
+     * Una clave entera se busca sin crear un objeto para ella.
+     * @param operationName Nombre de la operación.
+     * @return El resultado de la operación, o un mensaje de error.
+     */
+    private Object evaluateTableOperation(List<Token> tokens, int startIndex, int endIndex, String operationName) {
+        if (startIndex >= endIndex) {
+            return new LispError("Error: " + operationName + " requiere una tabla");
+        }
+        Object value = evaluateToken(tokens, startIndex);
+        if (isError(value)) {
+            return value;
+        }
+        if (!(value instanceof LispTable)) {
+            return new LispError("Error: " + operationName + " requiere una tabla");
+        }
+        LispTable table = (LispTable) value;
+        if (operationName.equals("table-count")) {
+            return (long) table.size();
+        }
+
+        int keyIndex = nextIndex(tokens, startIndex);
+        if (keyIndex >= endIndex) {
+            return new LispError("Error: " + operationName + " requiere una clave");
+        }
+        Object key = evaluateOperand(tokens, keyIndex);
+        // La clave entera se copia antes de evaluar otro operando, que reusa unboxedLong
+        long longKey = key == UNBOXED_LONG ? unboxedLong : 0;
+        if (key != UNBOXED_LONG) {
+            key = boxed(key);
+            if (isError(key)) {
+                return key;
+            }
+            if (!LispTable.isValidKey(key)) {
+                return new LispError("Error: clave de tabla no válida en " + operationName);
+            }
+        }
+
+        int valueIndex = nextIndex(tokens, keyIndex);
+        switch (operationName) {
+            case "table-get":
+                Object found = key == UNBOXED_LONG ? table.get(longKey) : table.get(key);
+                if (found != null) {
+                    return found;
+                }
+                return valueIndex < endIndex ? evaluateToken(tokens, valueIndex) : (Object) 0L;
+            case "table-put":
+                if (valueIndex >= endIndex) {
+                    return new LispError("Error: table-put requiere un valor");
+                }
+                Object stored = evaluateToken(tokens, valueIndex);
+                if (isError(stored)) {
+                    return stored;
+                }
+                if (key == UNBOXED_LONG) {
+                    table.put(longKey, stored);
+                } else {
+                    table.put(key, stored);
+                }
+                return stored;
+            default:
+                boolean removed = key == UNBOXED_LONG ? table.remove(longKey) : table.remove(key);
+                return removed ? 1L : 0L;
+        }
+    }
+
+    /**
+     * Evalúa (spawn formas...): empieza a evaluar las formas en otro hilo y devuelve un LispFuture.
+     * La tarea tiene su propio Evaluator, una copia de las variables globales y del ámbito
+     * actual y un ámbito propio encima; sus setq y defun no se ven fuera de la tarea (ver
+     * Environment.fork). Para comunicar tareas se usan canales o variables compartidas.
+     */
+    private Object evaluateSpawn(List<Token> tokens, int startIndex, int endIndex) {
+        if (startIndex >= endIndex) {
+            return new LispError("Error: spawn requiere una expresión");
+        }
+        Environment childEnvironment = env.fork();
+        childEnvironment.pushScope();
+        Evaluator child = new Evaluator(childEnvironment);
+        child.output = output;
+        return LispFuture.spawn(() -> {
+            try {
+                return child.evaluateSequence(tokens, startIndex, endIndex);
+            } catch (StackOverflowError e) {
+                return new LispError(STACK_OVERFLOW_MESSAGE);
+            } catch (RuntimeException e) {
+                return new LispError(e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Evalúa (await futuro): espera a que termine la tarea de un spawn y devuelve su valor.
+     * Si la tarea terminó con un error, await devuelve ese error.
+     */
+    private Object evaluateAwait(List<Token> tokens, int startIndex, int endIndex) {
+        if (startIndex >= endIndex) {
+            return new LispError("Error: await requiere un futuro");
+        }
+        Object value = evaluateToken(tokens, startIndex);
+        if (isError(value)) {
+            return value;
+        }
+        if (!(value instanceof LispFuture)) {
+            return new LispError("Error: await requiere un futuro");
+        }
+        return ((LispFuture) value).await();
+    }
+
+    /**
+     * Evalúa (channel) o (channel n): un canal con capacidad para n valores (1 por omisión).
+     */
+    private Object evaluateChannel(List<Token> tokens, int startIndex, int endIndex) {
+        if (startIndex >= endIndex) {
+            return new LispChannel(1);
+        }
+        Object size = boxed(evaluateOperand(tokens, startIndex));
+        if (isError(size)) {
+            return size;
         }
+        if (!(size instanceof Long) || (Long) size < 1 || (Long) size > MAX_VECTOR_LENGTH) {
+            return new LispError("Error: capacidad de canal no válida");
+        }
+        return new LispChannel((int) (long) (Long) size);
+    }
 
-        String functionName = tokens.get(startIndex).getValue();
-        List<Token> parameters = new ArrayList<>();
-        List<Token> body = new ArrayList<>();
+    /**
+     * Evalúa (send canal valor), que espera si el canal está lleno y devuelve el valor,
+     * o (recv canal), que espera si está vacío y devuelve el valor más antiguo.
+     */
+    private Object evaluateChannelOperation(List<Token> tokens, int startIndex, int endIndex, String operationName) {
+        if (startIndex >= endIndex) {
+            return new LispError("Error: " + operationName + " requiere un canal");
+        }
+        Object value = evaluateToken(tokens, startIndex);
+        if (isError(value)) {
+            return value;
+        }
+        if (!(value instanceof LispChannel)) {
+            return new LispError("Error: " + operationName + " requiere un canal");
+        }
+        LispChannel channel = (LispChannel) value;
+        if (operationName.equals("recv")) {
+            return channel.receive();
+        }
+        int valueIndex = nextIndex(tokens, startIndex);
+        if (valueIndex >= endIndex) {
+            return new LispError("Error: send requiere un valor");
+        }
+        Object message = evaluateToken(tokens, valueIndex);
+        if (isError(message)) {
+            return message;
+        }
+        return channel.send(message);
+    }
 
-        // Obtener los parámetros
-        int i = startIndex + 1;
-        if (!tokens.get(i).getType().equals("PARENTHESIS") || !tokens.get(i).getValue().equals("(")) {
-            return "Error: los parámetros deben estar entre paréntesis";
+    /**
+     * Evalúa las operaciones atómicas sobre una variable compartida entre hilos:
+     * (set! x valor), (incf! x) o (incf! x n), (compare-and-set! x esperado nuevo)
+     * y (swap! x f argumentos...), que guarda (f x argumentos...).
+     * Una variable compartida que no existe vale 0. compare-and-set! devuelve 1 si cambió
+     * el valor y 0 si no; las demás devuelven el valor nuevo. incf! de un entero sobre un
+     * valor entero suma directo en el AtomicLong de la celda (ver SharedCell). Si otro hilo
+     * cambia la variable a la vez, incf! y swap! vuelven a intentar, así que f puede
+     * llamarse más de una vez y no debe tener efectos.
+     * Las variables globales comunes no necesitan sincronización: cada tarea trabaja sobre
+     * una copia (ver Environment.fork). Las tablas y los vectores sí pueden quedar al alcance
+     * de varias tareas y sincronizan cada operación (ver LispTable y LispVector).
+     * @param operationName Nombre de la operación.
+     * @return El resultado de la operación, o un mensaje de error.
+     */
+    private Object evaluateSharedOperation(List<Token> tokens, int startIndex, int endIndex, String operationName) {
+        if (startIndex >= endIndex || !tokens.get(startIndex).getType().equals("SYMBOL")) {
+            return new LispError("Error: " + operationName + " requiere el nombre de una variable");
         }
-        i++;
-        while (i < tokens.size() && !(tokens.get(i).getType().equals("PARENTHESIS") && tokens.get(i).getValue().equals(")"))) {
-            parameters.add(tokens.get(i));
-            i++;
+        String name = tokens.get(startIndex).getValue();
+        if (env.lookupTable(name) != null) {
+            return new LispError("Error: " + name + " es una variable común; "
+                    + operationName + " solo actúa sobre variables compartidas");
         }
-        i++;
+        SharedCell cell = env.sharedCell(name);
+        int argsStart = nextIndex(tokens, startIndex);
 
-        // Obtener el cuerpo de la función
-        while (i < tokens.size() && !(tokens.get(i).getType().equals("PARENTHESIS") && tokens.get(i).getValue().equals(")"))) {
-            body.add(tokens.get(i));
-            i++;
+        switch (operationName) {
+            case "set!": {
+                if (argsStart >= endIndex) {
+                    return new LispError("Error: set! requiere un valor");
+                }
+                Object value = evaluateToken(tokens, argsStart);
+                if (!isError(value)) {
+                    cell.set(value);
+                }
+                return value;
+            }
+            case "incf!": {
+                Object delta = argsStart < endIndex ? evaluateToken(tokens, argsStart) : (Object) 1L;
+                if (isError(delta)) {
+                    return delta;
+                }
+                if (delta instanceof Long) {
+                    // Un contador entero suma en su AtomicLong sin crear objetos
+                    Long sum = cell.add((Long) delta);
+                    if (sum != null) {
+                        return sum;
+                    }
+                }
+                while (true) {
+                    Object current = cell.get();
+                    Object updated = combineNumbers('+', current, delta);
+                    if (isError(updated) || cell.replace(current, updated)) {
+                        return updated;
+                    }
+                }
+            }
+            case "compare-and-set!": {
+                int newIndex = argsStart < endIndex ? nextIndex(tokens, argsStart) : endIndex;
+                if (newIndex >= endIndex) {
+                    return new LispError("Error: compare-and-set! requiere un valor esperado y uno nuevo");
+                }
+                Object expected = evaluateToken(tokens, argsStart);
+                if (isError(expected)) {
+                    return expected;
+                }
+                Object replacement = evaluateToken(tokens, newIndex);
+                if (isError(replacement)) {
+                    return replacement;
+                }
+                while (true) {
+                    Object current = cell.get();
+                    if (!sameValue(current, expected)) {
+                        return 0L;
+                    }
+                    if (cell.replace(current, replacement)) {
+                        return 1L;
+                    }
+                }
+            }
+            default: {
+                if (argsStart >= endIndex) {
+                    return new LispError("Error: swap! requiere una función");
+                }
+                Object function = functionArgument(tokens, argsStart, "swap!");
+                if (isError(function)) {
+                    return function;
+                }
+                Object extra = evaluateArguments(tokens, nextIndex(tokens, argsStart), endIndex);
+                if (isError(extra)) {
+                    return extra;
+                }
+                Object[] args = new Object[((Object[]) extra).length + 1];
+                System.arraycopy((Object[]) extra, 0, args, 1, args.length - 1);
+                while (true) {
+                    Object current = cell.get();
+                    args[0] = current;
+                    Object updated = applyFunction(function, args);
+                    if (isError(updated) || cell.replace(current, updated)) {
+                        return updated;
+                    }
+                }
+            }
         }
+    }
 
-        // Guardar la función en el entorno (parámetros y cuerpo)
-        env.defineFunction(functionName, parameters, body);
-        return "Función " + functionName + " definida";
+    /**
+     * Indica si dos valores son iguales: los números por su valor, las cadenas por su
+     * contenido y lo demás con equals.
+     */
+    private boolean sameValue(Object left, Object right) {
+        Integer comparison = compareOperands(left, right);
+        if (comparison != null) {
+            return comparison == 0;
+        }
+        if (left instanceof CharSequence && right instanceof CharSequence) {
+            return LispString.contentEquals((CharSequence) left, (CharSequence) right);
+        }
+        return Objects.equals(left, right);
     }
 
     /**
-     * Evalúa una estructura condicional (if).
-     * @param tokens Lista de tokens que representan la condición.
-     * @param startIndex Índice donde comienza la condición.
-     * @return Resultado de la rama evaluada.
+     * Evalúa (concat a b ...): la concatenación de los operandos, que no copia los caracteres
+     * de los operandos largos (ver LispString). Los operandos que no son cadenas se agregan
+     * como se imprimen.
      */
-    private String evaluateIf(List<Token> tokens, int startIndex) {
-        // Verificar estructura básica
-        if (tokens.size() < startIndex + 3) {
-            return "Error: Estructura if incompleta";
+    private Object evaluateConcat(List<Token> tokens, int startIndex, int endIndex) {
+        CharSequence result = "";
+        for (int i = startIndex; i < endIndex; i = nextIndex(tokens, i)) {
+            Object value = evaluateToken(tokens, i);
+            if (isError(value)) {
+                return value;
+            }
+            CharSequence part = value instanceof CharSequence ? (CharSequence) value : String.valueOf(value);
+            if ((long) result.length() + part.length() > MAX_STRING_LENGTH) {
+                return new LispError("Error: cadena demasiado larga en concat");
+            }
+            result = LispString.concat(result, part);
         }
+        return result;
+    }
 
-        // Evaluar la condición
-        String conditionResult = evaluateToken(tokens, startIndex);
-        if (conditionResult.startsWith("Error")) {
-            return conditionResult;
+    /**
+     * Evalúa (string-length s), (string= a b), que devuelve 1 si las cadenas tienen el mismo
+     * contenido y 0 si no, o (substring s inicio [fin]), que comparte los caracteres de s.
+     */
+    private Object evaluateStringOperation(List<Token> tokens, int startIndex, int endIndex, String operationName) {
+        if (startIndex >= endIndex) {
+            return new LispError("Error: " + operationName + " requiere una cadena");
+        }
+        Object value = evaluateToken(tokens, startIndex);
+        if (isError(value)) {
+            return value;
+        }
+        if (!(value instanceof CharSequence)) {
+            return new LispError("Error: " + operationName + " requiere una cadena");
+        }
+        CharSequence text = (CharSequence) value;
+        if (operationName.equals("string-length")) {
+            return (long) text.length();
         }
 
-        // Determinar si la condición es verdadera (1) o falsa (0)
-        boolean condition = isTruthy(conditionResult);
+        int nextIndex = nextIndex(tokens, startIndex);
+        if (operationName.equals("string=")) {
+            if (nextIndex >= endIndex) {
+                return new LispError("Error: string= requiere dos cadenas");
+            }
+            Object other = evaluateToken(tokens, nextIndex);
+            if (isError(other)) {
+                return other;
+            }
+            if (!(other instanceof CharSequence)) {
+                return new LispError("Error: string= requiere dos cadenas");
+            }
+            return LispString.contentEquals(text, (CharSequence) other) ? 1L : 0L;
+        }
 
-        // Encontrar el inicio del bloque then
-        int thenStart = startIndex + 1;
-        if (thenStart >= tokens.size()) {
-            return "Error: falta rama then";
+        if (nextIndex >= endIndex) {
+            return new LispError("Error: substring requiere una cadena y un inicio");
+        }
+        Object start = boxed(evaluateOperand(tokens, nextIndex));
+        if (isError(start)) {
+            return start;
+        }
+        int endArgument = nextIndex(tokens, nextIndex);
+        Object end = (long) text.length();
+        if (endArgument < endIndex) {
+            end = boxed(evaluateOperand(tokens, endArgument));
+            if (isError(end)) {
+                return end;
+            }
+        }
+        if (!(start instanceof Long) || !(end instanceof Long)) {
+            return new LispError("Error: substring requiere índices enteros");
         }
+        long from = (Long) start;
+        long to = (Long) end;
+        if (from < 0 || from > to || to > text.length()) {
+            return new LispError("Error: índice fuera de rango en substring");
+        }
+        return LispString.substring(text, (int) from, (int) to);
+    }
 
-        // Capturar el bloque then completo
-        int thenEnd = findMatchingParenthesis(tokens, thenStart);
-        if (thenEnd == -1) {
-            return "Error: paréntesis no balanceados en rama then";
+    /**
+     * Evalúa (cons a b): una celda nueva que comparte b como cola.
+     */
+    private Object evaluateCons(List<Token> tokens, int startIndex, int endIndex) {
+        int tailIndex = nextIndex(tokens, startIndex);
+        if (tailIndex >= endIndex) {
+            return new LispError("Error: cons requiere dos operandos");
+        }
+        Object head = evaluateToken(tokens, startIndex);
+        if (isError(head)) {
+            return head;
+        }
+        Object tail = evaluateToken(tokens, tailIndex);
+        if (isError(tail)) {
+            return tail;
         }
-        List<Token> thenBranch = tokens.subList(thenStart, thenEnd + 1);
+        return new LispCons(head, tail);
+    }
 
-        // Buscar rama else (opcional)
-        List<Token> elseBranch = null;
-        int elseStart = thenEnd + 1;
+    /**
+     * Evalúa (car lista) o (cdr lista). cdr devuelve la cola sin copiarla.
+     */
+    private Object evaluateCarCdr(List<Token> tokens, int startIndex, int endIndex, String operationName) {
+        if (startIndex >= endIndex) {
+            return new LispError("Error: " + operationName + " requiere una lista");
+        }
+        Object value = evaluateToken(tokens, startIndex);
+        if (isError(value)) {
+            return value;
+        }
+        if (!(value instanceof LispCons)) {
+            return new LispError("Error: " + operationName + " requiere una lista");
+        }
+        LispCons cell = (LispCons) value;
+        if (cell.isEmpty()) {
+            return new LispError("Error: " + operationName + " de una lista vacía");
+        }
+        return operationName.equals("car") ? cell.getCar() : cell.getCdr();
+    }
 
-        if (elseStart < tokens.size() && !tokens.get(elseStart).getValue().equals(")")) {
-            int elseEnd = findMatchingParenthesis(tokens, elseStart);
-            if (elseEnd == -1) {
-                return "Error: paréntesis no balanceados en rama else";
+    /**
+     * Evalúa (list a b c ...).
+     */
+    private Object evaluateList(List<Token> tokens, int startIndex, int endIndex) {
+        List<Object> values = new ArrayList<>();
+        for (int i = startIndex; i < endIndex; i = nextIndex(tokens, i)) {
+            Object value = evaluateToken(tokens, i);
+            if (isError(value)) {
+                return value;
             }
-            elseBranch = tokens.subList(elseStart, elseEnd + 1);
+            values.add(value);
         }
+        return LispCons.fromArray(values.toArray(), 0, values.size(), LispCons.EMPTY);
+    }
 
-        // Ejecutar solo la rama correspondiente
-        if (condition) {
-            return evaluate(thenBranch);
-        } else {
-            return elseBranch != null ? evaluate(elseBranch) : "";
+    /**
+     * Evalúa (range n), (range desde hasta) o (range desde hasta paso): una lista de enteros
+     * que empieza en desde (0 por omisión) y termina antes de hasta.
+     */
+    private Object evaluateRange(List<Token> tokens, int startIndex, int endIndex) {
+        long[] bounds = new long[3];
+        int count = 0;
+        for (int i = startIndex; i < endIndex; i = nextIndex(tokens, i)) {
+            if (count == 3) {
+                return new LispError("Error: range requiere de uno a tres enteros");
+            }
+            Object value = boxed(evaluateOperand(tokens, i));
+            if (isError(value)) {
+                return value;
+            }
+            if (!(value instanceof Long)) {
+                return new LispError("Error: range requiere enteros");
+            }
+            bounds[count++] = (Long) value;
+        }
+        if (count == 0) {
+            return new LispError("Error: range requiere de uno a tres enteros");
+        }
+        long from = count == 1 ? 0 : bounds[0];
+        long to = count == 1 ? bounds[0] : bounds[1];
+        long step = count == 3 ? bounds[2] : 1;
+        if (step == 0) {
+            return new LispError("Error: el paso de range no puede ser cero");
+        }
+
+        // Cantidad de elementos, calculada sin desborde
+        BigInteger span = BigInteger.valueOf(to).subtract(BigInteger.valueOf(from));
+        BigInteger steps = BigInteger.valueOf(step);
+        long size = span.signum() == 0 || span.signum() != steps.signum() ? 0
+                : span.add(steps).subtract(BigInteger.valueOf(Long.signum(step))).divide(steps).longValue();
+        if (size > MAX_VECTOR_LENGTH) {
+            return new LispError("Error: range demasiado grande");
+        }
+        LispCons list = LispCons.EMPTY;
+        for (long k = size - 1; k >= 0; k--) {
+            list = new LispCons(from + k * step, list);
         }
+        return list;
     }
 
     /**
-     * Determina si un valor se considera "verdadero" en LISP.
-     * @param value Valor a evaluar.
-     * @return true si el valor es truthy, false en caso contrario.
+     * Evalúa el argumento función de map, filter, reduce o funcall: el nombre de una función
+     * de usuario o de un operador predefinido (+, -, *, > o <), o una expresión cuyo valor es
+     * una lambda.
+     * @return El nombre de la función (String), la LispClosure, o un LispError.
      */
-    private boolean isTruthy(String value) {
-        if (value == null || value.isEmpty()) {
-            return false;
+    private Object functionArgument(List<Token> tokens, int index, String operationName) {
+        Token token = tokens.get(index);
+        boolean symbol = token.getType().equals("SYMBOL");
+        if (symbol && (isBuiltinOperator(token.getValue()) || env.isFunctionDefined(token.getValue()))) {
+            return token.getValue();
         }
-        try {
-            double num = Double.parseDouble(value);
-            return num != 0.0;
-        } catch (NumberFormatException e) {
-            return true; // Cualquier string no vacío es verdadero
+        Object value = evaluateToken(tokens, index);
+        if (isError(value) || value instanceof LispClosure) {
+            return value;
         }
+        if (symbol) {
+            return new LispError("Error: función desconocida: " + token.getValue());
+        }
+        return new LispError("Error: " + operationName + " requiere una función");
     }
 
+    /**
+     * Obtiene los elementos del argumento lista de map, filter o reduce.
+     * @param value Valor ya evaluado del argumento.
+     * @return Los elementos de la lista, o un mensaje de error.
+     */
+    private Object listElements(Object value, String operationName) {
+        if (isError(value)) {
+            return value;
+        }
+        Object[] values = value instanceof LispCons ? ((LispCons) value).toArray() : null;
+        if (values == null) {
+            return new LispError("Error: " + operationName + " requiere una lista");
+        }
+        return values;
+    }
 
-    private String evaluateGreaterThan(List<Token> tokens, int startIndex) {
-        if (tokens.size() < startIndex + 2) {
-            return "Error: > requiere dos operandos";
+    /**
+     * Evalúa (map f lista) o (filter f lista).
+     * Sobre una secuencia perezosa devuelve otra secuencia perezosa con la etapa agregada.
+     * filter comparte con la lista original la cola más larga en la que no se descartó nada.
+     * Con listas grandes y una función sin efectos el trabajo se reparte en el ForkJoinPool.
+     */
+    private Object evaluateMapFilter(List<Token> tokens, int startIndex, int endIndex, String operationName) {
+        int listIndex = nextIndex(tokens, startIndex);
+        if (listIndex >= endIndex) {
+            return new LispError("Error: " + operationName + " requiere una función y una lista");
         }
-        String left = evaluateToken(tokens, startIndex);
-        String right = evaluateToken(tokens, startIndex + 1);
-        if (left.startsWith("Error") || right.startsWith("Error")) {
-            return "Error en operación >";
+        Object function = functionArgument(tokens, startIndex, operationName);
+        if (isError(function)) {
+            return function;
         }
-        try {
-            return Double.parseDouble(left) > Double.parseDouble(right) ? "1" : "0";
-        } catch (NumberFormatException e) {
-            return "Error: operandos no numéricos para >";
+        Object list = evaluateToken(tokens, listIndex);
+        if (list instanceof LispLazySeq) {
+            // Sobre una secuencia perezosa solo se agrega la etapa; nada se evalúa todavía
+            byte stage = operationName.equals("map") ? LispLazySeq.MAP : LispLazySeq.FILTER;
+            return ((LispLazySeq) list).withStage(stage, function, 0);
+        }
+        Object argument = listElements(list, operationName);
+        if (!(argument instanceof Object[])) {
+            return argument;
+        }
+        Object[] values = (Object[]) argument;
+
+        Object[] results = new Object[values.length];
+        Object error = applyToAll(function, values, results);
+        if (error != null) {
+            return error;
+        }
+        if (operationName.equals("map")) {
+            return LispCons.fromArray(results, 0, results.length, LispCons.EMPTY);
         }
-    }
 
-    private String evaluateWhile(List<Token> tokens, int startIndex) {
-        if (tokens.size() < startIndex + 2) {
-            return "Error: bucle while mal formado";
+        // filter: los elementos descartados marcan hasta dónde hay que copiar
+        int lastDropped = -1;
+        for (int i = 0; i < results.length; i++) {
+            if (!isTruthy(results[i])) {
+                lastDropped = i;
+            }
+        }
+        LispCons tail = (LispCons) list;
+        for (int i = 0; i <= lastDropped; i++) {
+            tail = (LispCons) tail.getCdr();
+        }
+        List<Object> kept = new ArrayList<>();
+        for (int i = 0; i < lastDropped; i++) {
+            if (isTruthy(results[i])) {
+                kept.add(values[i]);
+            }
         }
+        return LispCons.fromArray(kept.toArray(), 0, kept.size(), tail);
+    }
 
-        String result = "0"; // Valor por defecto si el bucle no se ejecuta
+    // Indica si un valor es un entero (Long o BigInteger), con el que + y * son exactos
+    private static boolean isExact(Object value) {
+        return value instanceof Long || value instanceof BigInteger;
+    }
 
-        while (true) {
-            // Evaluar la condición
-            String conditionResult = evaluateToken(tokens, startIndex);
-            if (conditionResult.startsWith("Error")) {
-                return conditionResult;
+    private static boolean allExact(Object[] values) {
+        for (Object value : values) {
+            if (!isExact(value)) {
+                return false;
             }
+        }
+        return true;
+    }
 
-            boolean condition = !conditionResult.equals("0");
-            if (!condition) {
-                break;
+    /**
+     * Evalúa (reduce f lista) o (reduce f lista inicial), un pliegue por la izquierda.
+     * Una secuencia perezosa se pliega a medida que se recorre, sin guardar sus elementos.
+     * Con + o * sobre listas grandes de enteros las sumas parciales se calculan en paralelo;
+     * con decimales el pliegue es siempre en orden, porque reagrupar las operaciones cambia
+     * el redondeo del resultado.
+     */
+    private Object evaluateReduce(List<Token> tokens, int startIndex, int endIndex) {
+        int listIndex = nextIndex(tokens, startIndex);
+        if (listIndex >= endIndex) {
+            return new LispError("Error: reduce requiere una función y una lista");
+        }
+        int initialIndex = nextIndex(tokens, listIndex);
+        Object function = functionArgument(tokens, startIndex, "reduce");
+        if (isError(function)) {
+            return function;
+        }
+        Object list = evaluateToken(tokens, listIndex);
+        if (list instanceof LispLazySeq) {
+            return reduceLazy(function, (LispLazySeq) list, tokens, initialIndex, endIndex);
+        }
+        Object argument = listElements(list, "reduce");
+        if (!(argument instanceof Object[])) {
+            return argument;
+        }
+        Object[] values = (Object[]) argument;
+
+        Object result;
+        int first;
+        if (initialIndex < endIndex) {
+            result = evaluateToken(tokens, initialIndex);
+            if (isError(result)) {
+                return result;
             }
+            first = 0;
+        } else if (values.length > 0) {
+            result = values[0];
+            first = 1;
+        } else {
+            return new LispError("Error: reduce de una lista vacía sin valor inicial");
+        }
 
-            // Ejecutar el cuerpo del bucle
-            int bodyStart = startIndex + 1;
-            int bodyEnd = findMatchingParenthesis(tokens, bodyStart);
-            List<Token> body = tokens.subList(bodyStart, bodyEnd + 1);
-            result = evaluate(body);
+        if ((function.equals("+") || function.equals("*")) && values.length - first >= PARALLEL_THRESHOLD
+                && isExact(result) && allExact(values)) {
+            // + y * son asociativos sobre enteros: cada parte se pliega por separado y luego se juntan
+            char operator = ((String) function).charAt(0);
+            int offset = first;
+            Object[] partials = runChunks(values.length - first, (from, to) -> {
+                Object partial = values[offset + from];
+                for (int i = offset + from + 1; i < offset + to && !isError(partial); i++) {
+                    partial = combineNumbers(operator, partial, values[i]);
+                }
+                return partial;
+            });
+            for (Object partial : partials) {
+                result = combineNumbers(operator, result, partial);
+                if (isError(result)) {
+                    return result;
+                }
+            }
+            return result;
         }
 
+        for (int i = first; i < values.length; i++) {
+            result = applyFunction(function, new Object[] {result, values[i]});
+            if (isError(result)) {
+                return result;
+            }
+        }
         return result;
     }
 
-    private String evaluateFor(List<Token> tokens, int startIndex) {
-        if (tokens.size() < startIndex + 4) {
-            return "Error: bucle for mal formado";
+    /**
+     * Pliega una secuencia perezosa elemento por elemento.
+     * @param function Nombre de la función.
+     * @param seq Secuencia a recorrer.
+     * @param tokens Lista de tokens del reduce.
+     * @param initialIndex Índice del valor inicial (igual a endIndex si no hay).
+     * @param endIndex Índice del paréntesis que cierra el reduce.
+     * @return El resultado del pliegue, o un mensaje de error.
+     */
+    private Object reduceLazy(Object function, LispLazySeq seq, List<Token> tokens, int initialIndex, int endIndex) {
+        Object[] accumulator = {NO_VALUE};
+        if (initialIndex < endIndex) {
+            accumulator[0] = evaluateToken(tokens, initialIndex);
+            if (isError(accumulator[0])) {
+                return accumulator[0];
+            }
         }
-
-        // Inicialización
-        String initResult = evaluateToken(tokens, startIndex);
-        if (initResult.startsWith("Error")) {
-            return initResult;
+        boolean arithmetic = function.equals("+") || function.equals("*");
+        Object error = forEachLazy(seq, element -> {
+            if (accumulator[0] == NO_VALUE) {
+                accumulator[0] = element;
+            } else if (arithmetic) {
+                accumulator[0] = combineNumbers(((String) function).charAt(0), accumulator[0], element);
+            } else {
+                accumulator[0] = applyFunction(function, new Object[] {accumulator[0], element});
+            }
+            return isError(accumulator[0]) ? accumulator[0] : null;
+        });
+        if (error != null) {
+            return error;
+        }
+        if (accumulator[0] == NO_VALUE) {
+            return new LispError("Error: reduce de una lista vacía sin valor inicial");
         }
+        return accumulator[0];
+    }
 
-        String result = "0";
+    /**
+     * Recorre una secuencia perezosa pasando cada elemento por todas sus etapas antes de
+     * pedir el siguiente a la fuente; la fuente se cierra al terminar.
+     * @param seq Secuencia a recorrer.
+     * @param consumer Recibe los elementos que salen de la última etapa.
+     * @return null si se recorrió completa, o un mensaje de error.
+     */
+    private Object forEachLazy(LispLazySeq seq, ElementConsumer consumer) {
+        int stages = seq.stageCount();
+        long[] passed = new long[stages];
+        for (int k = 0; k < stages; k++) {
+            if (seq.stageKind(k) == LispLazySeq.TAKE && seq.stageLimit(k) <= 0) {
+                return null;
+            }
+        }
 
-        while (true) {
-            // Condición
-            String conditionResult = evaluateToken(tokens, startIndex + 1);
-            if (conditionResult.startsWith("Error")) {
-                return conditionResult;
+        try (LispLazySeq.Source source = seq.open()) {
+            boolean last = false;
+            while (!last && source.hasNext()) {
+                Object value = source.next();
+                boolean keep = true;
+                for (int k = 0; k < stages && keep; k++) {
+                    switch (seq.stageKind(k)) {
+                        case LispLazySeq.MAP:
+                            value = applyFunction(seq.stageFunction(k), new Object[] {value});
+                            if (isError(value)) {
+                                return value;
+                            }
+                            break;
+                        case LispLazySeq.FILTER:
+                            Object test = applyFunction(seq.stageFunction(k), new Object[] {value});
+                            if (isError(test)) {
+                                return test;
+                            }
+                            keep = isTruthy(test);
+                            break;
+                        default:
+                            // take: este elemento pasa; si completa la cantidad es el último que se pide
+                            if (++passed[k] >= seq.stageLimit(k)) {
+                                last = true;
+                            }
+                            break;
+                    }
+                }
+                if (keep) {
+                    Object stop = consumer.accept(value);
+                    if (stop != null) {
+                        return stop;
+                    }
+                }
             }
+            return null;
+        } catch (IOException e) {
+            return new LispError("Error: no se pudo leer el archivo: " + e.getMessage());
+        } catch (UncheckedIOException e) {
+            return new LispError("Error: no se pudo leer el archivo: " + e.getCause().getMessage());
+        }
+    }
 
-            boolean condition = !conditionResult.equals("0");
-            if (!condition) {
-                break;
+    /**
+     * Evalúa (lazy-range), (lazy-range n), (lazy-range desde hasta) o (lazy-range desde hasta paso).
+     * Sin argumentos la secuencia no tiene fin: 0, 1, 2, ...
+     * @return Una secuencia perezosa de enteros.
+     */
+    private Object evaluateLazyRange(List<Token> tokens, int startIndex, int endIndex) {
+        long[] bounds = new long[3];
+        int count = 0;
+        for (int i = startIndex; i < endIndex; i = nextIndex(tokens, i)) {
+            if (count == 3) {
+                return new LispError("Error: lazy-range requiere de cero a tres enteros");
+            }
+            Object value = boxed(evaluateOperand(tokens, i));
+            if (isError(value)) {
+                return value;
             }
+            if (!(value instanceof Long)) {
+                return new LispError("Error: lazy-range requiere enteros");
+            }
+            bounds[count++] = (Long) value;
+        }
+        if (count == 0) {
+            return LispLazySeq.range(0, 0, 1, false);
+        }
+        long step = count == 3 ? bounds[2] : 1;
+        if (step == 0) {
+            return new LispError("Error: el paso de lazy-range no puede ser cero");
+        }
+        return count == 1 ? LispLazySeq.range(0, bounds[0], step, true)
+                : LispLazySeq.range(bounds[0], bounds[1], step, true);
+    }
 
-            // Cuerpo del bucle
-            int bodyStart = startIndex + 2;
-            int bodyEnd = findMatchingParenthesis(tokens, bodyStart);
-            List<Token> body = tokens.subList(bodyStart, bodyEnd + 1);
-            result = evaluate(body);
+    /**
+     * Evalúa (file-lines archivo): una secuencia perezosa con las líneas del archivo.
+     * El archivo puede ser un valor de cadena o, si no, el texto del símbolo (por ejemplo datos.txt).
+     */
+    private Object evaluateFileLines(List<Token> tokens, int startIndex, int endIndex) {
+        if (startIndex >= endIndex) {
+            return new LispError("Error: file-lines requiere un archivo");
+        }
+        Object value = evaluateToken(tokens, startIndex);
+        if (isError(value)) {
+            return value;
+        }
+        String name = value instanceof CharSequence ? value.toString() : null;
+        if (name == null && tokens.get(startIndex).getType().equals("SYMBOL")) {
+            name = tokens.get(startIndex).getValue();
+        }
+        if (name == null) {
+            return new LispError("Error: file-lines requiere un archivo");
+        }
+        try {
+            return LispLazySeq.lines(Path.of(name));
+        } catch (RuntimeException e) {
+            return new LispError("Error: nombre de archivo no válido: " + name);
+        }
+    }
 
-            // Actualización
-            String updateResult = evaluateToken(tokens, bodyEnd + 1);
-            if (updateResult.startsWith("Error")) {
-                return updateResult;
+    /**
+     * Evalúa (take n secuencia): los primeros n elementos. Sobre una secuencia perezosa agrega
+     * una etapa; sobre una lista copia solo el prefijo (la lista completa se devuelve sin copiar).
+     */
+    private Object evaluateTake(List<Token> tokens, int startIndex, int endIndex) {
+        int seqIndex = nextIndex(tokens, startIndex);
+        if (seqIndex >= endIndex) {
+            return new LispError("Error: take requiere una cantidad y una secuencia");
+        }
+        Object count = boxed(evaluateOperand(tokens, startIndex));
+        if (isError(count)) {
+            return count;
+        }
+        if (!(count instanceof Long) || (Long) count < 0) {
+            return new LispError("Error: take requiere una cantidad entera no negativa");
+        }
+        long limit = (Long) count;
+        Object seq = evaluateToken(tokens, seqIndex);
+        if (isError(seq)) {
+            return seq;
+        }
+        if (seq instanceof LispLazySeq) {
+            return ((LispLazySeq) seq).withStage(LispLazySeq.TAKE, null, limit);
+        }
+        Object argument = listElements(seq, "take");
+        if (!(argument instanceof Object[])) {
+            return argument;
+        }
+        Object[] values = (Object[]) argument;
+        if (limit >= values.length) {
+            return seq;
+        }
+        return LispCons.fromArray(values, 0, (int) limit, LispCons.EMPTY);
+    }
+
+    /**
+     * Evalúa (to-list secuencia): recorre una secuencia perezosa y guarda sus elementos en una lista.
+     */
+    private Object evaluateToList(List<Token> tokens, int startIndex, int endIndex) {
+        if (startIndex >= endIndex) {
+            return new LispError("Error: to-list requiere una secuencia");
+        }
+        Object seq = evaluateToken(tokens, startIndex);
+        if (isError(seq) || seq instanceof LispCons) {
+            return seq;
+        }
+        if (!(seq instanceof LispLazySeq)) {
+            return new LispError("Error: to-list requiere una secuencia");
+        }
+        List<Object> values = new ArrayList<>();
+        Object error = forEachLazy((LispLazySeq) seq, element -> {
+            values.add(element);
+            return null;
+        });
+        if (error != null) {
+            return error;
+        }
+        return LispCons.fromArray(values.toArray(), 0, values.size(), LispCons.EMPTY);
+    }
+
+    /**
+     * Aplica una función de un argumento a cada valor.
+     * Si hay muchos valores y la función no tiene efectos, cada parte se evalúa en el
+     * ForkJoinPool con su propio Evaluator sobre una copia del ámbito actual.
+     * @param function Nombre de la función.
+     * @param values Argumentos.
+     * @param results Arreglo donde se guardan los resultados.
+     * @return null si todo se evaluó, o el primer mensaje de error.
+     */
+    private Object applyToAll(Object function, Object[] values, Object[] results) {
+        if (values.length < PARALLEL_THRESHOLD || !isPureFunction(function, new HashSet<>())) {
+            for (int i = 0; i < values.length; i++) {
+                results[i] = applyFunction(function, new Object[] {values[i]});
+                if (isError(results[i])) {
+                    return results[i];
+                }
             }
+            return null;
         }
 
-        return result;
+        Object[] errors = runChunks(values.length, (from, to) -> {
+            Evaluator worker = new Evaluator(env.fork());
+            for (int i = from; i < to; i++) {
+                results[i] = worker.applyFunction(function, new Object[] {values[i]});
+                if (worker.isError(results[i])) {
+                    return results[i];
+                }
+            }
+            return null;
+        });
+        for (Object error : errors) {
+            if (error != null) {
+                return error;
+            }
+        }
+        return null;
     }
 
+    /**
+     * Reparte el rango [0, length) en partes y las evalúa en el ForkJoinPool común.
+     * @param length Cantidad de elementos.
+     * @param chunk Trabajo de una parte, recibe el inicio (inclusivo) y el fin (exclusivo).
+     * @return El resultado de cada parte, en orden.
+     */
+    private Object[] runChunks(int length, BiFunction<Integer, Integer, Object> chunk) {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int chunks = Math.max(1, Math.min(length, pool.getParallelism() * 4));
+        List<Callable<Object>> tasks = new ArrayList<>(chunks);
+        for (int c = 0; c < chunks; c++) {
+            int from = (int) ((long) length * c / chunks);
+            int to = (int) ((long) length * (c + 1) / chunks);
+            tasks.add(() -> chunk.apply(from, to));
+        }
+        Object[] results = new Object[chunks];
+        List<Future<Object>> futures = pool.invokeAll(tasks);
+        try {
+            for (int c = 0; c < chunks; c++) {
+                results[c] = futures.get(c).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("operación interrumpida");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+        return results;
+    }
 
+    /**
+     * Indica si una función se puede evaluar en paralelo: ni ella ni las funciones que
+     * nombra usan formas con efectos fuera de su propio ámbito (print, defun, vset, vfill).
+     * Una lambda se revisa por su cuerpo y por las lambdas que capturó; funcall, y llamar a
+     * una variable en vez de a una función, cuentan como efecto porque la función que se
+     * llama no se conoce de antemano.
+     * @param function Nombre de la función, o una LispClosure.
+     * @param visited Funciones ya revisadas (para la recursión).
+     */
+    private boolean isPureFunction(Object function, Set<String> visited) {
+        if (function instanceof LispClosure) {
+            LispClosure closure = (LispClosure) function;
+            for (int i = 0; i < closure.getCapturedCount(); i++) {
+                Object captured = closure.getCapturedValue(i);
+                if (captured instanceof LispClosure && !isPureFunction(captured, visited)) {
+                    return false;
+                }
+            }
+            return isPureBody(closure.getBody().subList(closure.getBodyStart(), closure.getBodyEnd()), visited);
+        }
+        String name = (String) function;
+        if (isBuiltinOperator(name) || !visited.add(name)) {
+            return true;
+        }
+        List<Token> body = env.getFunction(name);
+        return body != null && isPureBody(body, visited);
+    }
 
-    private String evaluateLessThan(List<Token> tokens, int startIndex) {
-        if (tokens.size() < startIndex + 2) {
-            return "Error: < requiere dos operandos";
+    // Un símbolo en posición de llamada (al inicio de una forma, o la función de map, filter o
+    // reduce) tiene que ser una forma predefinida o una función pura: si es una variable puede
+    // guardar cualquier lambda y no se sabe qué hace
+    private boolean isPureBody(List<Token> body, Set<String> visited) {
+        for (int k = 0; k < body.size(); k++) {
+            Token token = body.get(k);
+            if (!token.getType().equals("SYMBOL")) {
+                continue;
+            }
+            String value = token.getValue();
+            if (IMPURE_FORMS.contains(value) || value.equals("funcall")) {
+                return false;
+            }
+            if (value.equals("declare") && k > 0 && body.get(k - 1).getValue().equals("(")) {
+                // Los grupos (tipo nombres...) no llaman a nada
+                int declareEnd = findMatchingParenthesis(body, k - 1);
+                if (declareEnd < 0) {
+                    return false;
+                }
+                k = declareEnd;
+                continue;
+            }
+            if (env.isFunctionDefined(value)) {
+                if (!isPureFunction(value, visited)) {
+                    return false;
+                }
+                continue;
+            }
+            if (isCallPosition(body, k) && !BUILTIN_FORMS.contains(value) && !isBuiltinOperator(value)) {
+                return false;
+            }
         }
-        String left = evaluateToken(tokens, startIndex);
-        String right = evaluateToken(tokens, startIndex + 1);
-        if (left.startsWith("Error") || right.startsWith("Error")) {
-            return "Error en operación <";
+        return true;
+    }
+
+    // Indica si el símbolo en index se llama como función; las listas de parámetros de lambda
+    // y la de dotimes empiezan con un nombre que no se llama
+    private static boolean isCallPosition(List<Token> body, int index) {
+        if (index == 0) {
+            return false;
         }
-        try {
-            return Double.parseDouble(left) < Double.parseDouble(right) ? "1" : "0";
-        } catch (NumberFormatException e) {
-            return "Error: operandos no numéricos para <";
+        String previous = body.get(index - 1).getValue();
+        if (previous.equals("(")) {
+            if (index < 2) {
+                return true;
+            }
+            String before = body.get(index - 2).getValue();
+            return !before.equals("lambda") && !before.equals("dotimes");
         }
+        return previous.equals("map") || previous.equals("filter") || previous.equals("reduce");
+    }
+
+    private Object evaluateLessThan(List<Token> tokens, int startIndex, int endIndex) {
+        return evaluateComparison(tokens, startIndex, endIndex, '<');
     }
 }
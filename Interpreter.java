@@ -5,28 +5,93 @@ import java.util.List;
  *
  */
 public class Interpreter {
+    /** Versión del intérprete que informa el motor de scripts (LispScriptEngineFactory). */
+    public static final String VERSION = "2.0";
+
+    // Tamaño de código a partir del cual se usa la representación compacta de tokens
+    private static final int COMPACT_THRESHOLD = 64 * 1024;
+
+    // Tamaño de código a partir del cual la tokenización se reparte entre los núcleos
+    private static final int PARALLEL_THRESHOLD = 8 * 1024 * 1024;
+
     private Parser parser;
     private Evaluator evaluator;
     private Environment environment;
+    private ProgramCache programCache;
 
     public Interpreter() {
-        this.environment = new Environment();
+        this(new Environment());
+    }
+
+    /**
+     * Constructor que usa un entorno ya inicializado (por ejemplo, restaurado de una imagen)
+     * @param environment entorno con las funciones y variables de la sesión
+     */
+    public Interpreter(Environment environment) {
+        this.environment = environment;
         this.parser = new Parser();
         this.evaluator = new Evaluator(environment);
     }
 
+    /**
+     * metodo para obtener el entorno de la sesión
+     * @return el entorno del intérprete
+     */
+    public Environment getEnvironment() {
+        return environment;
+    }
+
+    /**
+     * metodo para usar un cache en disco de programas ya analizados
+     * @param programCache cache a usar, o null para tokenizar siempre
+     */
+    public void setProgramCache(ProgramCache programCache) {
+        this.programCache = programCache;
+    }
+
     /**
      * metodo que corre el codigo
      * @param code codigo LISP en forma de cadena
      */
     public void run(String code) {
         try {
+            if (programCache != null || code.length() >= COMPACT_THRESHOLD) {
+                runCompact(code);
+                return;
+            }
             List<Token> tokens = parser.tokenize(code);
-            String result = evaluator.evaluate(tokens);
+            String result = evaluator.evaluateProgram(tokens);
             //System.out.println(result);
         } catch (RuntimeException e) {
             System.out.println("Error: " + e.getMessage());
         }
     }
+
+    /**
+     * metodo que corre programas grandes (o cacheados) sobre un TokenStream compacto,
+     * creando los objetos Token de una sola forma de nivel superior a la vez. Se comporta
+     * igual que evaluateProgram sobre la lista completa: acepta átomos en el nivel superior
+     * y se detiene en el primer error
+     * @param code codigo LISP en forma de cadena
+     */
+    private void runCompact(String code) {
+        TokenStream stream = programCache != null ? programCache.load(code) : null;
+        if (stream == null) {
+            stream = code.length() >= PARALLEL_THRESHOLD
+                    ? parser.tokenizeCompactParallel(code) : parser.tokenizeCompact(code);
+            if (programCache != null) {
+                programCache.store(code, stream);
+            }
+        }
+        int i = 0;
+        while (i < stream.size()) {
+            int end = stream.kind(i) == TokenStream.OPEN ? stream.partner(i) + 1 : i + 1;
+            Object result = evaluator.evaluateProgramValue(stream.toTokens(i, end));
+            if (result instanceof LispError) {
+                return;
+            }
+            i = end;
+        }
+    }
 }
 
@@ -0,0 +1,56 @@
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * La clase LispChannel es un canal con capacidad fija para comunicar tareas de spawn:
+ * send espera mientras el canal está lleno y recv mientras está vacío.
+ */
+public final class LispChannel {
+    private final BlockingQueue<Object> queue;
+    private final int capacity;
+
+    /**
+     * Crea un canal vacío.
+     * @param capacity cantidad máxima de valores en espera (al menos 1)
+     */
+    public LispChannel(int capacity) {
+        // La cola enlazada no reserva memoria para la capacidad, que puede ser muy grande
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.capacity = capacity;
+    }
+
+    /**
+     * Pone un valor en el canal, esperando si está lleno.
+     * @return el valor enviado, o un LispError si se interrumpió la espera
+     */
+    public Object send(Object value) {
+        try {
+            queue.put(value);
+            return value;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new LispError("Error: espera interrumpida en send");
+        }
+    }
+
+    /**
+     * Saca el valor más antiguo del canal, esperando si está vacío.
+     * @return el valor, o un LispError si se interrumpió la espera
+     */
+    public Object receive() {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new LispError("Error: espera interrumpida en recv");
+        }
+    }
+
+    /**
+     * Representación del canal.
+     */
+    @Override
+    public String toString() {
+        return "#<canal " + capacity + ">";
+    }
+}
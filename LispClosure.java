@@ -0,0 +1,102 @@
+import java.util.List;
+
+/**
+ * La clase LispClosure es una función anónima creada con lambda.
+ *
+ * Guarda sus parámetros, el rango de tokens de su cuerpo y, en dos arreglos planos, solo
+ * las variables libres del cuerpo que estaban definidas al crearla, con el valor que tenían
+ * en ese momento. Llamarla no copia el ámbito de quien llama ni lo ve: el cuerpo solo ve
+ * esas variables, sus parámetros y las variables globales, y el costo depende de cuántas
+ * variables usa el cuerpo y no de cuántas hay visibles. Es inmutable.
+ */
+public final class LispClosure {
+    private final String[] parameters;
+    private final List<Token> body;
+    private final int bodyStart;
+    private final int bodyEnd;
+    private final String[] capturedNames;
+    private final Object[] capturedValues;
+
+    /**
+     * Crea una closure.
+     * @param parameters nombres de los parámetros
+     * @param body lista de tokens que contiene el cuerpo
+     * @param bodyStart índice de la primera forma del cuerpo
+     * @param bodyEnd índice donde termina el cuerpo (exclusivo)
+     * @param capturedNames nombres de las variables capturadas
+     * @param capturedValues valores capturados, en el mismo orden
+     */
+    public LispClosure(String[] parameters, List<Token> body, int bodyStart, int bodyEnd,
+                       String[] capturedNames, Object[] capturedValues) {
+        this.parameters = parameters;
+        this.body = body;
+        this.bodyStart = bodyStart;
+        this.bodyEnd = bodyEnd;
+        this.capturedNames = capturedNames;
+        this.capturedValues = capturedValues;
+    }
+
+    /**
+     * Obtiene la cantidad de parámetros.
+     */
+    public int getArity() {
+        return parameters.length;
+    }
+
+    /**
+     * Obtiene el nombre de un parámetro.
+     */
+    public String getParameter(int index) {
+        return parameters[index];
+    }
+
+    /**
+     * Obtiene la lista de tokens que contiene el cuerpo.
+     */
+    public List<Token> getBody() {
+        return body;
+    }
+
+    /**
+     * Obtiene el índice de la primera forma del cuerpo.
+     */
+    public int getBodyStart() {
+        return bodyStart;
+    }
+
+    /**
+     * Obtiene el índice donde termina el cuerpo (exclusivo).
+     */
+    public int getBodyEnd() {
+        return bodyEnd;
+    }
+
+    /**
+     * Obtiene la cantidad de variables capturadas.
+     */
+    public int getCapturedCount() {
+        return capturedNames.length;
+    }
+
+    /**
+     * Obtiene el nombre de una variable capturada.
+     */
+    public String getCapturedName(int index) {
+        return capturedNames[index];
+    }
+
+    /**
+     * Obtiene el valor capturado de una variable.
+     */
+    public Object getCapturedValue(int index) {
+        return capturedValues[index];
+    }
+
+    /**
+     * Representación de la closure.
+     */
+    @Override
+    public String toString() {
+        return "#<lambda>";
+    }
+}
@@ -0,0 +1,36 @@
+import java.util.List;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+/**
+ * La clase LispCompiledScript es un script ya tokenizado por un LispScriptEngine.
+ *
+ * Evaluarlo no vuelve a analizar el texto y reutiliza los tokens, con sus caches de sitios
+ * de llamada y literales ya convertidos, en cada evaluación.
+ */
+public class LispCompiledScript extends CompiledScript {
+    private final LispScriptEngine engine;
+    private final List<Token> tokens;
+
+    /**
+     * Crea el script compilado.
+     * @param engine el motor que lo compiló y que lo evalúa
+     * @param tokens el programa tokenizado
+     */
+    public LispCompiledScript(LispScriptEngine engine, List<Token> tokens) {
+        this.engine = engine;
+        this.tokens = tokens;
+    }
+
+    @Override
+    public Object eval(ScriptContext context) throws ScriptException {
+        return engine.run(tokens, context);
+    }
+
+    @Override
+    public ScriptEngine getEngine() {
+        return engine;
+    }
+}
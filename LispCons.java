@@ -0,0 +1,106 @@
+/**
+ * La clase LispCons es una celda cons inmutable (car, cdr); las listas se forman
+ * encadenando celdas y terminan en la lista vacía EMPTY.
+ *
+ * Como las celdas no cambian, varias listas pueden compartir la misma cola:
+ * cons agrega un elemento sin copiar la lista y cdr devuelve la cola sin copiarla.
+ */
+public final class LispCons {
+    /** La lista vacía (). */
+    public static final LispCons EMPTY = new LispCons(null, null);
+
+    private final Object car;
+    private final Object cdr;
+
+    /**
+     * Crea una celda nueva.
+     * @param car el primer elemento
+     * @param cdr el resto de la lista (normalmente otra celda o EMPTY)
+     */
+    public LispCons(Object car, Object cdr) {
+        this.car = car;
+        this.cdr = cdr;
+    }
+
+    /**
+     * Obtiene el primer elemento.
+     */
+    public Object getCar() {
+        return car;
+    }
+
+    /**
+     * Obtiene el resto de la lista.
+     */
+    public Object getCdr() {
+        return cdr;
+    }
+
+    /**
+     * Indica si es la lista vacía.
+     */
+    public boolean isEmpty() {
+        return this == EMPTY;
+    }
+
+    /**
+     * Construye una lista con un rango de un arreglo, terminada en la cola dada.
+     * @param values los elementos
+     * @param from índice inicial (inclusivo)
+     * @param to índice final (exclusivo)
+     * @param tail la cola que se comparte al final (EMPTY para una lista nueva)
+     * @return la lista construida
+     */
+    public static LispCons fromArray(Object[] values, int from, int to, LispCons tail) {
+        LispCons list = tail;
+        for (int i = to - 1; i >= from; i--) {
+            list = new LispCons(values[i], list);
+        }
+        return list;
+    }
+
+    /**
+     * Copia los elementos de una lista propia en un arreglo.
+     * @return los elementos, o null si la lista no termina en EMPTY
+     */
+    public Object[] toArray() {
+        int length = 0;
+        Object current = this;
+        while (current instanceof LispCons && current != EMPTY) {
+            length++;
+            current = ((LispCons) current).cdr;
+        }
+        if (current != EMPTY) {
+            return null;
+        }
+        Object[] values = new Object[length];
+        current = this;
+        for (int i = 0; i < length; i++) {
+            values[i] = ((LispCons) current).car;
+            current = ((LispCons) current).cdr;
+        }
+        return values;
+    }
+
+    /**
+     * Representación de la lista, por ejemplo (1 2 3) o (1 . 2).
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("(");
+        Object current = this;
+        boolean first = true;
+        while (current instanceof LispCons && current != EMPTY) {
+            if (!first) {
+                text.append(' ');
+            }
+            text.append(((LispCons) current).car);
+            first = false;
+            current = ((LispCons) current).cdr;
+        }
+        if (current != EMPTY) {
+            text.append(" . ").append(current);
+        }
+        return text.append(')').toString();
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * La clase LispError es el resultado de una evaluación que falló.
+ *
+ * El Evaluator devuelve un LispError en lugar de un valor y cada forma que lo recibe
+ * lo devuelve sin evaluar nada más; reconocerlo es una sola comparación de tipo, así que
+ * una cadena cualquiera (aunque comience con "Error") es siempre un valor. La forma más
+ * interna que falló anota su línea en el código fuente.
+ */
+public final class LispError {
+    private final String message;
+    private final int line;
+
+    /**
+     * Crea un error sin posición.
+     * @param message el mensaje, por ejemplo "Error: división por cero"
+     */
+    public LispError(String message) {
+        this(message, 0);
+    }
+
+    private LispError(String message, int line) {
+        this.message = message;
+        this.line = line;
+    }
+
+    /**
+     * Obtiene el mensaje del error, sin la posición.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Obtiene la línea del código donde ocurrió el error.
+     * @return la línea (desde 1), o 0 si no se conoce
+     */
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * Anota la línea del error si todavía no la tiene.
+     * @param line la línea de la forma que falló (0 si no se conoce)
+     * @return este error si ya tenía posición, o un error igual en esa línea
+     */
+    public LispError at(int line) {
+        return this.line != 0 || line == 0 ? this : new LispError(message, line);
+    }
+
+    /**
+     * Representación del error, por ejemplo "Error: división por cero (línea 3)".
+     */
+    @Override
+    public String toString() {
+        return line == 0 ? message : message + " (línea " + line + ")";
+    }
+}
@@ -0,0 +1,70 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * La clase LispFuture es el resultado pendiente de un spawn: una evaluación que corre en
+ * otro hilo y cuyo valor se obtiene con await.
+ *
+ * Los hilos son virtuales cuando la JVM los tiene (Java 21 o posterior, buscados por
+ * reflexión para seguir compilando con versiones anteriores); si no, se usa un pool de
+ * hilos de plataforma que crece según haga falta, porque las tareas pueden quedar
+ * esperando un canal que llena otra tarea y un pool fijo podría bloquearse.
+ */
+public final class LispFuture {
+    private static final ExecutorService EXECUTOR = createExecutor();
+
+    private final Future<Object> future;
+
+    private LispFuture(Future<Object> future) {
+        this.future = future;
+    }
+
+    /**
+     * Empieza una tarea en otro hilo.
+     * @param task la evaluación; devuelve un valor o un LispError
+     * @return el futuro de la tarea
+     */
+    public static LispFuture spawn(Callable<Object> task) {
+        return new LispFuture(EXECUTOR.submit(task));
+    }
+
+    /**
+     * Espera el resultado de la tarea (se puede pedir varias veces).
+     * @return el valor de la tarea, o un LispError si falló o si se interrumpió la espera
+     */
+    public Object await() {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new LispError("Error: espera interrumpida en await");
+        } catch (ExecutionException e) {
+            return new LispError("Error: la tarea falló: " + e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Representación del futuro.
+     */
+    @Override
+    public String toString() {
+        return future.isDone() ? "#<futuro terminado>" : "#<futuro>";
+    }
+
+    private static ExecutorService createExecutor() {
+        try {
+            Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "lisp-spawn");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
@@ -0,0 +1,231 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * La clase LispLazySeq describe una secuencia perezosa: una fuente (un rango de enteros,
+ * posiblemente sin fin, o las líneas de un archivo) seguida de etapas map, filter y take.
+ *
+ * La secuencia no guarda elementos. Cada vez que se recorre se abre una fuente nueva y el
+ * Evaluator pasa cada elemento por todas las etapas antes de pedir el siguiente, así que
+ * no se crean colecciones intermedias y un archivo se lee de a una línea.
+ * Las secuencias son inmutables: agregar una etapa crea una secuencia nueva.
+ */
+public final class LispLazySeq {
+    /** Etapa que reemplaza cada elemento por el resultado de la función. */
+    public static final byte MAP = 0;
+
+    /** Etapa que deja pasar solo los elementos para los que la función es verdadera. */
+    public static final byte FILTER = 1;
+
+    /** Etapa que deja pasar como máximo una cantidad de elementos. */
+    public static final byte TAKE = 2;
+
+    // Fuente: rango de enteros o líneas de un archivo
+    private final Path file;
+    private final long start;
+    private final long end;
+    private final long step;
+    private final boolean bounded;
+
+    // Etapas en orden
+    private final byte[] stageKinds;
+    private final Object[] stageFunctions;
+    private final long[] stageCounts;
+
+    private LispLazySeq(Path file, long start, long end, long step, boolean bounded,
+                        byte[] stageKinds, Object[] stageFunctions, long[] stageCounts) {
+        this.file = file;
+        this.start = start;
+        this.end = end;
+        this.step = step;
+        this.bounded = bounded;
+        this.stageKinds = stageKinds;
+        this.stageFunctions = stageFunctions;
+        this.stageCounts = stageCounts;
+    }
+
+    /**
+     * Crea una secuencia de enteros desde start, de step en step.
+     * @param start primer valor
+     * @param end límite (exclusivo), ignorado si bounded es false
+     * @param step distancia entre valores (distinta de cero)
+     * @param bounded false para una secuencia sin fin
+     * @return la secuencia
+     */
+    public static LispLazySeq range(long start, long end, long step, boolean bounded) {
+        return new LispLazySeq(null, start, end, step, bounded, new byte[0], new Object[0], new long[0]);
+    }
+
+    /**
+     * Crea una secuencia con las líneas de un archivo (UTF-8), leídas al recorrerla.
+     * @param file el archivo
+     * @return la secuencia
+     */
+    public static LispLazySeq lines(Path file) {
+        return new LispLazySeq(file, 0, 0, 0, true, new byte[0], new Object[0], new long[0]);
+    }
+
+    /**
+     * Crea una secuencia igual a esta con una etapa más al final.
+     * @param kind MAP, FILTER o TAKE
+     * @param function función de MAP o FILTER: su nombre o una LispClosure (null para TAKE)
+     * @param count cantidad máxima de TAKE (0 para las otras)
+     * @return la secuencia nueva
+     */
+    public LispLazySeq withStage(byte kind, Object function, long count) {
+        int stages = stageKinds.length;
+        byte[] kinds = Arrays.copyOf(stageKinds, stages + 1);
+        Object[] functions = Arrays.copyOf(stageFunctions, stages + 1);
+        long[] counts = Arrays.copyOf(stageCounts, stages + 1);
+        kinds[stages] = kind;
+        functions[stages] = function;
+        counts[stages] = count;
+        return new LispLazySeq(file, start, end, step, bounded, kinds, functions, counts);
+    }
+
+    /**
+     * Obtiene la cantidad de etapas.
+     */
+    public int stageCount() {
+        return stageKinds.length;
+    }
+
+    /**
+     * Obtiene el tipo de una etapa (MAP, FILTER o TAKE).
+     */
+    public byte stageKind(int stage) {
+        return stageKinds[stage];
+    }
+
+    /**
+     * Obtiene la función de una etapa MAP o FILTER (su nombre o una LispClosure).
+     */
+    public Object stageFunction(int stage) {
+        return stageFunctions[stage];
+    }
+
+    /**
+     * Obtiene la cantidad máxima de una etapa TAKE.
+     */
+    public long stageLimit(int stage) {
+        return stageCounts[stage];
+    }
+
+    /**
+     * Abre la fuente para un recorrido nuevo. Debe cerrarse al terminar.
+     * Los errores de lectura de archivo se informan como UncheckedIOException.
+     * @return un iterador sobre los elementos de la fuente, antes de las etapas
+     * @throws IOException si no se puede abrir el archivo
+     */
+    public Source open() throws IOException {
+        if (file != null) {
+            return new LineSource(Files.newBufferedReader(file, StandardCharsets.UTF_8));
+        }
+        return new RangeSource(start, end, step, bounded);
+    }
+
+    /**
+     * Representación de la secuencia (sus elementos no se calculan al imprimirla).
+     */
+    @Override
+    public String toString() {
+        return "#<secuencia perezosa>";
+    }
+
+    /**
+     * Recorrido de la fuente de una secuencia.
+     */
+    public abstract static class Source implements Iterator<Object>, AutoCloseable {
+        /**
+         * Libera el archivo de la fuente, si lo hay.
+         */
+        @Override
+        public void close() {
+        }
+    }
+
+    // Enteros de un rango; una secuencia sin fin termina si el siguiente valor no cabe en un long
+    private static final class RangeSource extends Source {
+        private long next;
+        private final long end;
+        private final long step;
+        private final boolean bounded;
+        private boolean exhausted;
+
+        RangeSource(long start, long end, long step, boolean bounded) {
+            this.next = start;
+            this.end = end;
+            this.step = step;
+            this.bounded = bounded;
+            this.exhausted = bounded && (step > 0 ? start >= end : start <= end);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !exhausted;
+        }
+
+        @Override
+        public Object next() {
+            if (exhausted) {
+                throw new NoSuchElementException();
+            }
+            long value = next;
+            try {
+                next = Math.addExact(next, step);
+                exhausted = bounded && (step > 0 ? next >= end : next <= end);
+            } catch (ArithmeticException e) {
+                exhausted = true;
+            }
+            return value;
+        }
+    }
+
+    // Líneas de un archivo, leídas de a una
+    private static final class LineSource extends Source {
+        private final BufferedReader reader;
+        private String line;
+
+        LineSource(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (line == null) {
+                try {
+                    line = reader.readLine();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return line != null;
+        }
+
+        @Override
+        public Object next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String value = line;
+            line = null;
+            return value;
+        }
+
+        @Override
+        public void close() {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
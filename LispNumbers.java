@@ -0,0 +1,229 @@
+import java.math.BigInteger;
+
+/**
+ * La clase LispNumbers implementa la torre numérica del intérprete.
+ *
+ * Los enteros se representan como Long mientras caben en 64 bits y como BigInteger
+ * cuando una operación desborda; el desborde se detecta con Math.*Exact. Los
+ * resultados BigInteger que vuelven a caber en un long se normalizan a Long.
+ * Los números con punto decimal o exponente son Double, y cualquier operación
+ * que mezcla un Double con un entero se promueve a Double.
+ */
+public final class LispNumbers {
+    private static final BigInteger LONG_MIN = BigInteger.valueOf(Long.MIN_VALUE);
+    private static final BigInteger LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
+
+    // Un literal con hasta 18 dígitos siempre cabe en un long
+    private static final int SAFE_LONG_DIGITS = 18;
+
+    private LispNumbers() {
+    }
+
+    /**
+     * Convierte un literal entero (-?\d+) en Long o BigInteger.
+     * @param text el texto del literal
+     * @return el valor como Long si cabe en 64 bits, si no como BigInteger
+     */
+    public static Object parseInteger(String text) {
+        int digits = text.startsWith("-") ? text.length() - 1 : text.length();
+        if (digits <= SAFE_LONG_DIGITS) {
+            return Long.parseLong(text);
+        }
+        return normalize(new BigInteger(text));
+    }
+
+    /**
+     * Convierte un literal numérico (entero o decimal) en Long, BigInteger o Double.
+     * @param text el texto del literal
+     * @return el valor numérico
+     */
+    public static Object parseNumber(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '.' || c == 'e' || c == 'E') {
+                return Double.parseDouble(text);
+            }
+        }
+        return parseInteger(text);
+    }
+
+    /**
+     * Convierte un valor a número si es posible.
+     * @param value valor evaluado (un Number o una cadena numérica)
+     * @return el valor como Long, BigInteger o Double, o null si no es numérico
+     */
+    public static Object toNumber(Object value) {
+        if (value instanceof Number) {
+            return value;
+        }
+        if (value instanceof String && isNumberText((String) value)) {
+            return parseNumber((String) value);
+        }
+        return null;
+    }
+
+    /**
+     * Indica si un texto es un literal numérico: -?\d+(\.\d+)?([eE][-+]?\d+)?
+     * @param text el texto a revisar
+     * @return true si el texto es un número entero o decimal
+     */
+    public static boolean isNumberText(String text) {
+        return isNumberText(text.toCharArray(), 0, text.length());
+    }
+
+    /**
+     * Indica si un rango de caracteres es un literal numérico, sin crear objetos.
+     * @param text arreglo de caracteres
+     * @param start inicio del rango (inclusivo)
+     * @param end fin del rango (exclusivo)
+     * @return true si el rango es un número entero o decimal
+     */
+    public static boolean isNumberText(char[] text, int start, int end) {
+        int i = start;
+        if (i < end && text[i] == '-') {
+            i++;
+        }
+        int digits = skipDigits(text, i, end);
+        if (digits == i) {
+            return false;
+        }
+        i = digits;
+        if (i < end && text[i] == '.') {
+            digits = skipDigits(text, i + 1, end);
+            if (digits == i + 1) {
+                return false;
+            }
+            i = digits;
+        }
+        if (i < end && (text[i] == 'e' || text[i] == 'E')) {
+            i++;
+            if (i < end && (text[i] == '-' || text[i] == '+')) {
+                i++;
+            }
+            digits = skipDigits(text, i, end);
+            if (digits == i) {
+                return false;
+            }
+            i = digits;
+        }
+        return i == end;
+    }
+
+    private static int skipDigits(char[] text, int i, int end) {
+        while (i < end && text[i] >= '0' && text[i] <= '9') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Reduce un BigInteger a Long cuando cabe en 64 bits.
+     * @param value el valor a normalizar
+     * @return Long si cabe, si no el mismo BigInteger
+     */
+    public static Object normalize(BigInteger value) {
+        if (value.compareTo(LONG_MIN) >= 0 && value.compareTo(LONG_MAX) <= 0) {
+            return value.longValue();
+        }
+        return value;
+    }
+
+    /**
+     * Convierte un entero (Long o BigInteger) a BigInteger.
+     */
+    public static BigInteger toBigInteger(Object value) {
+        return value instanceof BigInteger ? (BigInteger) value : BigInteger.valueOf((Long) value);
+    }
+
+    /**
+     * Suma dos enteros, en long si no hay desborde.
+     */
+    public static Object add(Object a, Object b) {
+        if (a instanceof Long && b instanceof Long) {
+            try {
+                return Math.addExact((Long) a, (Long) b);
+            } catch (ArithmeticException e) {
+                // Desborde: continuar con BigInteger
+            }
+        }
+        return normalize(toBigInteger(a).add(toBigInteger(b)));
+    }
+
+    /**
+     * Resta dos enteros, en long si no hay desborde.
+     */
+    public static Object subtract(Object a, Object b) {
+        if (a instanceof Long && b instanceof Long) {
+            try {
+                return Math.subtractExact((Long) a, (Long) b);
+            } catch (ArithmeticException e) {
+                // Desborde: continuar con BigInteger
+            }
+        }
+        return normalize(toBigInteger(a).subtract(toBigInteger(b)));
+    }
+
+    /**
+     * Multiplica dos enteros, en long si no hay desborde.
+     */
+    public static Object multiply(Object a, Object b) {
+        if (a instanceof Long && b instanceof Long) {
+            try {
+                return Math.multiplyExact((Long) a, (Long) b);
+            } catch (ArithmeticException e) {
+                // Desborde: continuar con BigInteger
+            }
+        }
+        return normalize(toBigInteger(a).multiply(toBigInteger(b)));
+    }
+
+    /**
+     * Calcula el resto de la división entera (mismo signo que el dividendo).
+     */
+    public static Object remainder(Object a, Object b) {
+        if (a instanceof Long && b instanceof Long) {
+            return (Long) a % (Long) b;
+        }
+        return normalize(toBigInteger(a).remainder(toBigInteger(b)));
+    }
+
+    /**
+     * Eleva un entero a un exponente entero no negativo, en long si no hay desborde.
+     */
+    public static Object pow(Object base, long exponent) {
+        if (base instanceof Long) {
+            long b = (Long) base;
+            long result = 1;
+            long e = exponent;
+            try {
+                while (e > 0) {
+                    if ((e & 1) == 1) {
+                        result = Math.multiplyExact(result, b);
+                    }
+                    e >>= 1;
+                    if (e > 0) {
+                        b = Math.multiplyExact(b, b);
+                    }
+                }
+                return result;
+            } catch (ArithmeticException ex) {
+                // Desborde: continuar con BigInteger
+            }
+        }
+        if (exponent > Integer.MAX_VALUE) {
+            throw new ArithmeticException("Error: exponente demasiado grande");
+        }
+        return normalize(toBigInteger(base).pow((int) exponent));
+    }
+
+    /**
+     * Compara dos enteros.
+     * @return negativo, cero o positivo según a sea menor, igual o mayor que b
+     */
+    public static int compare(Object a, Object b) {
+        if (a instanceof Long && b instanceof Long) {
+            return Long.compare((Long) a, (Long) b);
+        }
+        return toBigInteger(a).compareTo(toBigInteger(b));
+    }
+}
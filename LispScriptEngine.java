@@ -0,0 +1,350 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.Invocable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+/**
+ * La clase LispScriptEngine es el motor javax.script (JSR-223) del intérprete.
+ *
+ * Cada motor tiene su propio Environment, así que las funciones y variables definidas
+ * persisten entre evaluaciones. Antes de evaluar, los valores de los Bindings del contexto
+ * se copian como variables globales y al terminar los de ENGINE_SCOPE se actualizan con el
+ * valor final de cada variable; después esas variables vuelven al valor que tenían antes de
+ * la evaluación (o se eliminan), así que un binding no queda visible en la siguiente.
+ * print escribe en el Writer del contexto y los errores se lanzan como ScriptException con
+ * su línea.
+ *
+ * Como Compilable, un script se tokeniza una sola vez y el CompiledScript se puede evaluar
+ * muchas veces (los caches de sus sitios de llamada se conservan). Como Invocable, las
+ * funciones definidas con defun (o las lambdas guardadas en variables) se llaman con
+ * argumentos de Java sin pasar por texto. Un motor no debe usarse desde varios hilos a la vez.
+ */
+public class LispScriptEngine extends AbstractScriptEngine implements Compilable, Invocable {
+    private final ScriptEngineFactory factory;
+    private final Environment environment;
+    private final Evaluator evaluator;
+    private final Parser parser;
+
+    /**
+     * Crea un motor con un entorno vacío.
+     * @param factory la fábrica que lo crea
+     */
+    public LispScriptEngine(ScriptEngineFactory factory) {
+        this.factory = factory;
+        this.environment = new Environment();
+        this.evaluator = new Evaluator(environment);
+        this.parser = new Parser();
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext context) throws ScriptException {
+        return run(tokenize(script, context), context);
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+        return eval(read(reader), context);
+    }
+
+    @Override
+    public Bindings createBindings() {
+        return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    @Override
+    public CompiledScript compile(String script) throws ScriptException {
+        return new LispCompiledScript(this, tokenize(script, context));
+    }
+
+    @Override
+    public CompiledScript compile(Reader script) throws ScriptException {
+        return compile(read(script));
+    }
+
+    /**
+     * Llama a una función de usuario, a +, -, *, > o <, o a una lambda guardada en una variable.
+     * Los argumentos int, long, float, double, BigInteger, String, Boolean y List se convierten
+     * a valores LISP.
+     */
+    @Override
+    public Object invokeFunction(String name, Object... args) throws ScriptException, NoSuchMethodException {
+        if (!isCallable(name)) {
+            throw new NoSuchMethodException(name);
+        }
+        Object[] values = new Object[args == null ? 0 : args.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = toLisp(args[i]);
+            if (values[i] == null) {
+                throw new ScriptException("Error: argumento no compatible con LISP: " + args[i]);
+            }
+        }
+        return result(evaluator.call(name, values), context);
+    }
+
+    /**
+     * Llama a la función name con thiz como primer argumento, como (funcall name thiz args...).
+     */
+    @Override
+    public Object invokeMethod(Object thiz, String name, Object... args) throws ScriptException, NoSuchMethodException {
+        if (thiz == null) {
+            throw new IllegalArgumentException("thiz no puede ser null");
+        }
+        Object[] values = new Object[(args == null ? 0 : args.length) + 1];
+        values[0] = thiz;
+        if (args != null) {
+            System.arraycopy(args, 0, values, 1, args.length);
+        }
+        return invokeFunction(name, values);
+    }
+
+    @Override
+    public <T> T getInterface(Class<T> clasz) {
+        return implement(null, clasz);
+    }
+
+    @Override
+    public <T> T getInterface(Object thiz, Class<T> clasz) {
+        if (thiz == null) {
+            throw new IllegalArgumentException("thiz no puede ser null");
+        }
+        return implement(thiz, clasz);
+    }
+
+    /**
+     * Evalúa tokens ya analizados con los Bindings y el Writer de un contexto.
+     * @param tokens el programa tokenizado
+     * @param context el contexto de la evaluación
+     * @return el valor de la última forma
+     * @throws ScriptException si la evaluación falla
+     */
+    Object run(List<Token> tokens, ScriptContext context) throws ScriptException {
+        Map<String, Object> previous = new LinkedHashMap<>();
+        List<String> imported = importBindings(context, previous);
+        evaluator.setOutput(context.getWriter() == null ? null : new PrintWriter(context.getWriter()));
+        Object value;
+        try {
+            value = evaluator.evaluateProgramValue(tokens);
+            exportBindings(context, imported);
+        } catch (RuntimeException e) {
+            throw new ScriptException(e.getMessage(), fileName(context), -1);
+        } finally {
+            evaluator.setOutput(null);
+            restoreVariables(previous);
+        }
+        return result(value, context);
+    }
+
+    private List<Token> tokenize(String script, ScriptContext context) throws ScriptException {
+        try {
+            return parser.tokenize(script);
+        } catch (RuntimeException e) {
+            throw new ScriptException(e.getMessage(), fileName(context), -1);
+        }
+    }
+
+    private static String read(Reader reader) throws ScriptException {
+        StringBuilder script = new StringBuilder();
+        char[] buffer = new char[8192];
+        try {
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                script.append(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new ScriptException(e);
+        }
+        return script.toString();
+    }
+
+    // Copia los Bindings (primero GLOBAL_SCOPE, luego ENGINE_SCOPE) como variables globales;
+    // previous recibe el valor que tenía cada variable antes (null si no existía)
+    private List<String> importBindings(ScriptContext context, Map<String, Object> previous) {
+        List<String> imported = new ArrayList<>();
+        for (int scope : new int[] {ScriptContext.GLOBAL_SCOPE, ScriptContext.ENGINE_SCOPE}) {
+            Bindings bindings = context.getBindings(scope);
+            if (bindings == null) {
+                continue;
+            }
+            for (Map.Entry<String, Object> entry : bindings.entrySet()) {
+                String name = entry.getKey();
+                Object value = toLisp(entry.getValue());
+                if (value == null || name.startsWith("javax.script.")) {
+                    continue;
+                }
+                name = name.intern();
+                if (!previous.containsKey(name)) {
+                    previous.put(name, environment.getVariableValue(name));
+                }
+                if (value instanceof Number) {
+                    environment.setVariable(name, (Number) value);
+                } else if (value instanceof String) {
+                    environment.setVariable(name, (String) value);
+                } else {
+                    environment.setVariableValue(name, value);
+                }
+                if (scope == ScriptContext.ENGINE_SCOPE) {
+                    imported.add(name);
+                }
+            }
+        }
+        return imported;
+    }
+
+    // Devuelve a ENGINE_SCOPE el valor final de las variables que vinieron de ahí
+    private void exportBindings(ScriptContext context, List<String> imported) {
+        Bindings bindings = context.getBindings(ScriptContext.ENGINE_SCOPE);
+        for (String name : imported) {
+            Object value = environment.getVariableValue(name);
+            bindings.put(name, value instanceof LispString ? value.toString() : value);
+        }
+    }
+
+    // Devuelve las variables importadas al valor que tenían antes de la evaluación
+    private void restoreVariables(Map<String, Object> previous) {
+        for (Map.Entry<String, Object> entry : previous.entrySet()) {
+            Object value = entry.getValue();
+            if (value == null) {
+                environment.removeVariable(entry.getKey());
+            } else if (value instanceof Number) {
+                environment.setVariable(entry.getKey(), (Number) value);
+            } else {
+                environment.setVariableValue(entry.getKey(), value);
+            }
+        }
+    }
+
+    private static Object result(Object value, ScriptContext context) throws ScriptException {
+        if (value instanceof LispError) {
+            LispError error = (LispError) value;
+            throw new ScriptException(error.getMessage(), fileName(context),
+                    error.getLine() == 0 ? -1 : error.getLine());
+        }
+        // Las cadenas armadas con concat o substring se entregan como String
+        return value instanceof LispString ? value.toString() : value;
+    }
+
+    private static String fileName(ScriptContext context) {
+        Object name = context == null ? null : context.getAttribute(ScriptEngine.FILENAME);
+        return name == null ? null : name.toString();
+    }
+
+    private boolean isCallable(String name) {
+        return Evaluator.isBuiltinOperator(name) || environment.isFunctionDefined(name)
+                || environment.getVariableValue(name) instanceof LispClosure;
+    }
+
+    /**
+     * Convierte un valor de Java al valor LISP equivalente.
+     * @return el valor, o null si no tiene equivalente
+     */
+    private static Object toLisp(Object value) {
+        if (value instanceof Long || value instanceof Double || value instanceof BigInteger
+                || value instanceof String || value instanceof LispString || value instanceof LispCons || value instanceof LispVector
+                || value instanceof LispTable || value instanceof LispClosure || value instanceof LispLazySeq) {
+            return value;
+        }
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof Float || value instanceof BigDecimal) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? 1L : 0L;
+        }
+        if (value instanceof Character) {
+            return value.toString();
+        }
+        if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            Object[] elements = new Object[list.size()];
+            for (int i = 0; i < elements.length; i++) {
+                elements[i] = toLisp(list.get(i));
+                if (elements[i] == null) {
+                    return null;
+                }
+            }
+            return LispCons.fromArray(elements, 0, elements.length, LispCons.EMPTY);
+        }
+        return null;
+    }
+
+    /**
+     * Convierte el resultado de una función al tipo de retorno de un método de Java.
+     */
+    private static Object toJava(Object value, Class<?> type) {
+        if (type == void.class || type == Void.class) {
+            return null;
+        }
+        if (type == boolean.class || type == Boolean.class) {
+            return !(value instanceof Number && ((Number) value).doubleValue() == 0);
+        }
+        if (value instanceof Number) {
+            Number number = (Number) value;
+            if (type == int.class || type == Integer.class) {
+                return number.intValue();
+            } else if (type == long.class || type == Long.class) {
+                return number.longValue();
+            } else if (type == double.class || type == Double.class) {
+                return number.doubleValue();
+            } else if (type == float.class || type == Float.class) {
+                return number.floatValue();
+            }
+        }
+        if (type == String.class && value != null) {
+            return value.toString();
+        }
+        return value;
+    }
+
+    // Implementa una interfaz llamando a la función LISP del mismo nombre que cada método
+    private <T> T implement(Object thiz, Class<T> clasz) {
+        if (clasz == null || !clasz.isInterface()) {
+            throw new IllegalArgumentException("se requiere una interfaz");
+        }
+        for (Method method : clasz.getMethods()) {
+            if (!method.isDefault() && !Modifier.isStatic(method.getModifiers()) && !isCallable(method.getName())) {
+                return null;
+            }
+        }
+        Object proxy = Proxy.newProxyInstance(clasz.getClassLoader(), new Class<?>[] {clasz}, (self, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return self == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(self);
+                    default:
+                        return "LispScriptEngine$" + clasz.getSimpleName();
+                }
+            }
+            Object value = thiz == null ? invokeFunction(method.getName(), args)
+                    : invokeMethod(thiz, method.getName(), args);
+            return toJava(value, method.getReturnType());
+        });
+        return clasz.cast(proxy);
+    }
+}
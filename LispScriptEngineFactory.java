@@ -0,0 +1,96 @@
+import java.util.List;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+/**
+ * La clase LispScriptEngineFactory registra el intérprete en javax.script (JSR-223).
+ *
+ * Se publica en META-INF/services/javax.script.ScriptEngineFactory, así que una aplicación
+ * lo obtiene con new ScriptEngineManager().getEngineByName("lisp").
+ */
+public class LispScriptEngineFactory implements ScriptEngineFactory {
+    private static final List<String> NAMES = List.of("lisp", "proyecto1");
+    private static final List<String> EXTENSIONS = List.of("lisp", "lsp");
+    private static final List<String> MIME_TYPES = List.of("text/x-lisp", "application/x-lisp");
+
+    @Override
+    public String getEngineName() {
+        return "proyecto1 LISP";
+    }
+
+    @Override
+    public String getEngineVersion() {
+        return Interpreter.VERSION;
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return EXTENSIONS;
+    }
+
+    @Override
+    public List<String> getMimeTypes() {
+        return MIME_TYPES;
+    }
+
+    @Override
+    public List<String> getNames() {
+        return NAMES;
+    }
+
+    @Override
+    public String getLanguageName() {
+        return "LISP";
+    }
+
+    @Override
+    public String getLanguageVersion() {
+        return Interpreter.VERSION;
+    }
+
+    /**
+     * Obtiene los parámetros estándar del motor. THREADING es null: un motor (y su entorno)
+     * debe usarse desde un solo hilo a la vez.
+     */
+    @Override
+    public Object getParameter(String key) {
+        switch (key) {
+            case ScriptEngine.ENGINE:
+                return getEngineName();
+            case ScriptEngine.ENGINE_VERSION:
+                return getEngineVersion();
+            case ScriptEngine.NAME:
+                return NAMES.get(0);
+            case ScriptEngine.LANGUAGE:
+                return getLanguageName();
+            case ScriptEngine.LANGUAGE_VERSION:
+                return getLanguageVersion();
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public String getMethodCallSyntax(String obj, String m, String... args) {
+        StringBuilder call = new StringBuilder("(funcall ").append(m).append(' ').append(obj);
+        for (String arg : args) {
+            call.append(' ').append(arg);
+        }
+        return call.append(')').toString();
+    }
+
+    @Override
+    public String getOutputStatement(String toDisplay) {
+        return "(print " + toDisplay + ")";
+    }
+
+    @Override
+    public String getProgram(String... statements) {
+        return String.join("\n", statements);
+    }
+
+    @Override
+    public ScriptEngine getScriptEngine() {
+        return new LispScriptEngine(this);
+    }
+}
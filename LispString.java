@@ -0,0 +1,167 @@
+import java.util.ArrayDeque;
+
+/**
+ * La clase LispString es una cadena inmutable para concat y substring.
+ *
+ * Una LispString es una concatenación de otras dos cadenas (un nodo de rope) o una vista
+ * sobre una parte de un String. concat crea un nodo sin copiar caracteres y substring
+ * crea una vista que comparte el texto original, así que armar una salida grande en un
+ * ciclo no copia lo ya armado en cada paso. El texto completo se arma una sola vez, la
+ * primera vez que se pide con toString, y queda guardado.
+ *
+ * Los literales de cadena y las líneas de file-lines siguen siendo String; las operaciones
+ * de cadena aceptan cualquiera de los dos como CharSequence.
+ */
+public final class LispString implements CharSequence {
+    // Por debajo de este largo concat copia los caracteres en un String común
+    private static final int MIN_ROPE_LENGTH = 64;
+
+    private final int length;
+
+    // Vista: los caracteres [offset, offset + length) de base
+    private final String base;
+    private final int offset;
+
+    // Concatenación: left seguida de right, hasta que se arma el texto
+    private volatile CharSequence left;
+    private volatile CharSequence right;
+
+    // Texto completo, una vez armado
+    private volatile String flat;
+
+    private LispString(String base, int offset, int length) {
+        this.base = base;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    private LispString(CharSequence left, CharSequence right) {
+        this.base = null;
+        this.offset = 0;
+        this.length = left.length() + right.length();
+        this.left = left;
+        this.right = right;
+    }
+
+    /**
+     * Concatena dos cadenas sin copiar sus caracteres (salvo que el resultado sea corto).
+     * @param first la primera cadena
+     * @param second la segunda cadena
+     * @return la concatenación
+     */
+    public static CharSequence concat(CharSequence first, CharSequence second) {
+        if (first.length() == 0) {
+            return second;
+        }
+        if (second.length() == 0) {
+            return first;
+        }
+        if (first.length() + second.length() < MIN_ROPE_LENGTH) {
+            return first.toString() + second;
+        }
+        return new LispString(first, second);
+    }
+
+    /**
+     * Obtiene una parte de una cadena como vista que comparte sus caracteres.
+     * @param text la cadena
+     * @param start índice inicial (inclusivo)
+     * @param end índice final (exclusivo)
+     * @return la parte pedida
+     */
+    public static CharSequence substring(CharSequence text, int start, int end) {
+        if (start == 0 && end == text.length()) {
+            return text;
+        }
+        if (text instanceof LispString && ((LispString) text).base != null) {
+            LispString view = (LispString) text;
+            return new LispString(view.base, view.offset + start, end - start);
+        }
+        return new LispString(text.toString(), start, end - start);
+    }
+
+    /**
+     * Compara el contenido de dos cadenas.
+     */
+    public static boolean contentEquals(CharSequence first, CharSequence second) {
+        return first.length() == second.length() && first.toString().equals(second.toString());
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (base != null) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return base.charAt(offset + index);
+        }
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return substring(this, start, end);
+    }
+
+    /**
+     * Obtiene el texto completo. La primera vez recorre el rope (sin recursión, porque una
+     * cadena armada en un ciclo puede tener miles de niveles) y libera sus nodos.
+     */
+    @Override
+    public String toString() {
+        String text = flat;
+        if (text != null) {
+            return text;
+        }
+        if (base != null) {
+            text = base.substring(offset, offset + length);
+        } else {
+            char[] chars = new char[length];
+            int position = 0;
+            ArrayDeque<CharSequence> pending = new ArrayDeque<>();
+            pending.push(this);
+            while (!pending.isEmpty()) {
+                CharSequence part = pending.pop();
+                if (part instanceof LispString) {
+                    LispString node = (LispString) part;
+                    CharSequence nodeLeft = node.left;
+                    CharSequence nodeRight = node.right;
+                    if (node.base == null && node.flat == null && nodeLeft != null && nodeRight != null) {
+                        pending.push(nodeRight);
+                        pending.push(nodeLeft);
+                        continue;
+                    }
+                    if (node.base != null && node.flat == null) {
+                        node.base.getChars(node.offset, node.offset + node.length, chars, position);
+                        position += node.length;
+                        continue;
+                    }
+                }
+                // Un String, o un nodo que otro hilo ya armó (flat se escribe antes de soltar los hijos)
+                String partText = part.toString();
+                partText.getChars(0, partText.length(), chars, position);
+                position += partText.length();
+            }
+            text = new String(chars);
+        }
+        flat = text;
+        left = null;
+        right = null;
+        return text;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof LispString && contentEquals(this, (LispString) other);
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
@@ -0,0 +1,283 @@
+/**
+ * La clase LispTable es una tabla hash mutable de direccionamiento abierto (sondeo lineal)
+ * para make-table y las operaciones table-*.
+ *
+ * Mientras todas las claves sean enteros la tabla guarda las claves en un arreglo long,
+ * sin crear un objeto por clave; la primera clave de otro tipo (decimal, BigInteger o
+ * cadena) pasa la tabla a claves objeto. Al borrar se corren las entradas siguientes del
+ * mismo grupo en vez de dejar marcas, así las búsquedas no se alargan con el uso.
+ *
+ * Una tabla puede quedar al alcance de varias tareas (fork copia las variables, no las
+ * tablas a las que apuntan), así que los métodos públicos se sincronizan sobre la tabla.
+ */
+public final class LispTable {
+    private static final int MIN_CAPACITY = 8;
+
+    // Claves enteras (mientras objectKeys sea null) u objeto
+    private long[] longKeys;
+    private Object[] objectKeys;
+    private boolean[] used;
+    private Object[] values;
+    private int size;
+
+    /**
+     * Crea una tabla vacía con lugar para expected entradas sin crecer.
+     * @param expected cantidad de entradas esperada (0 si no se sabe)
+     */
+    public LispTable(int expected) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < expected) {
+            capacity <<= 1;
+        }
+        longKeys = new long[capacity];
+        used = new boolean[capacity];
+        values = new Object[capacity];
+        size = 0;
+    }
+
+    /**
+     * Indica si un valor puede usarse como clave (entero, decimal, BigInteger o cadena).
+     * Las cadenas (String o LispString) se comparan por contenido.
+     */
+    public static boolean isValidKey(Object key) {
+        return key instanceof Number || key instanceof CharSequence;
+    }
+
+    /**
+     * Obtiene la cantidad de entradas.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Busca el valor de una clave entera.
+     * @return el valor, o null si la clave no está
+     */
+    public synchronized Object get(long key) {
+        int slot = findLong(key);
+        return slot < 0 ? null : values[slot];
+    }
+
+    /**
+     * Busca el valor de una clave.
+     * @return el valor, o null si la clave no está
+     */
+    public synchronized Object get(Object key) {
+        int slot = findObject(normalize(key));
+        return slot < 0 ? null : values[slot];
+    }
+
+    /**
+     * Guarda el valor de una clave entera, reemplazando el anterior si lo había.
+     */
+    public synchronized void put(long key, Object value) {
+        if (objectKeys != null) {
+            put((Object) key, value);
+            return;
+        }
+        ensureRoom();
+        int mask = used.length - 1;
+        int slot = mix(Long.hashCode(key)) & mask;
+        while (used[slot]) {
+            if (longKeys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        used[slot] = true;
+        longKeys[slot] = key;
+        values[slot] = value;
+        size++;
+    }
+
+    /**
+     * Guarda el valor de una clave, reemplazando el anterior si lo había.
+     */
+    public synchronized void put(Object key, Object value) {
+        key = normalize(key);
+        if (objectKeys == null) {
+            if (key instanceof Long) {
+                put((long) (Long) key, value);
+                return;
+            }
+            convertToObjectKeys();
+        }
+        ensureRoom();
+        int mask = used.length - 1;
+        int slot = mix(key.hashCode()) & mask;
+        while (used[slot]) {
+            if (objectKeys[slot].equals(key)) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        used[slot] = true;
+        objectKeys[slot] = key;
+        values[slot] = value;
+        size++;
+    }
+
+    /**
+     * Quita una clave entera.
+     * @return true si la clave estaba
+     */
+    public synchronized boolean remove(long key) {
+        return removeSlot(findLong(key));
+    }
+
+    /**
+     * Quita una clave.
+     * @return true si la clave estaba
+     */
+    public synchronized boolean remove(Object key) {
+        return removeSlot(findObject(normalize(key)));
+    }
+
+    // Las claves de cadena se guardan como String para que una LispString encuentre la misma entrada
+    private static Object normalize(Object key) {
+        return key instanceof CharSequence && !(key instanceof String) ? key.toString() : key;
+    }
+
+    /**
+     * Copia las entradas de la tabla, sin un orden definido.
+     * @return clave y valor de cada entrada, alternados (las claves enteras como Long)
+     */
+    public synchronized Object[] entries() {
+        Object[] entries = new Object[size * 2];
+        int next = 0;
+        for (int slot = 0; slot < used.length; slot++) {
+            if (used[slot]) {
+                entries[next++] = objectKeys != null ? objectKeys[slot] : (Object) longKeys[slot];
+                entries[next++] = values[slot];
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Representación de la tabla (sin sus entradas, que no tienen orden).
+     */
+    @Override
+    public synchronized String toString() {
+        return "#<tabla " + size + ">";
+    }
+
+    private int findLong(long key) {
+        if (objectKeys != null) {
+            return findObject(key);
+        }
+        int mask = used.length - 1;
+        int slot = mix(Long.hashCode(key)) & mask;
+        while (used[slot]) {
+            if (longKeys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int findObject(Object key) {
+        if (objectKeys == null) {
+            // Con claves enteras solo puede estar otra clave entera
+            return key instanceof Long ? findLong((Long) key) : -1;
+        }
+        int mask = used.length - 1;
+        int slot = mix(key.hashCode()) & mask;
+        while (used[slot]) {
+            if (objectKeys[slot].equals(key)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    // Borra la ranura y corre hacia atrás las entradas del grupo que quedarían inalcanzables
+    private boolean removeSlot(int slot) {
+        if (slot < 0) {
+            return false;
+        }
+        int mask = used.length - 1;
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (used[next]) {
+            int home = homeSlot(next);
+            // La entrada puede ocupar el hueco si su ranura inicial no está entre el hueco y ella
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                moveSlot(next, hole);
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        used[hole] = false;
+        values[hole] = null;
+        if (objectKeys != null) {
+            objectKeys[hole] = null;
+        }
+        size--;
+        return true;
+    }
+
+    private int homeSlot(int slot) {
+        int hash = objectKeys == null ? Long.hashCode(longKeys[slot]) : objectKeys[slot].hashCode();
+        return mix(hash) & (used.length - 1);
+    }
+
+    private void moveSlot(int from, int to) {
+        if (objectKeys == null) {
+            longKeys[to] = longKeys[from];
+        } else {
+            objectKeys[to] = objectKeys[from];
+        }
+        values[to] = values[from];
+    }
+
+    // Crece al pasar tres cuartos de la capacidad
+    private void ensureRoom() {
+        if ((size + 1) * 4 > used.length * 3) {
+            rehash(used.length * 2);
+        }
+    }
+
+    private void convertToObjectKeys() {
+        objectKeys = new Object[used.length];
+        for (int slot = 0; slot < used.length; slot++) {
+            if (used[slot]) {
+                objectKeys[slot] = longKeys[slot];
+            }
+        }
+        rehash(used.length);
+    }
+
+    private void rehash(int capacity) {
+        long[] oldLongKeys = longKeys;
+        Object[] oldObjectKeys = objectKeys;
+        boolean[] oldUsed = used;
+        Object[] oldValues = values;
+        longKeys = oldObjectKeys == null ? new long[capacity] : null;
+        objectKeys = oldObjectKeys == null ? null : new Object[capacity];
+        used = new boolean[capacity];
+        values = new Object[capacity];
+        size = 0;
+        for (int slot = 0; slot < oldUsed.length; slot++) {
+            if (!oldUsed[slot]) {
+                continue;
+            }
+            if (oldObjectKeys == null) {
+                put(oldLongKeys[slot], oldValues[slot]);
+            } else {
+                put(oldObjectKeys[slot], oldValues[slot]);
+            }
+        }
+    }
+
+    // Mezcla los bits del hash para que claves consecutivas no formen grupos largos
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,474 @@
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * La clase LispVector es un vector de tamaño fijo con elementos primitivos
+ * int, long o double (los mismos tipos que acepta declare).
+ *
+ * Las operaciones masivas (suma, producto punto, suma elemento a elemento, mínimo,
+ * máximo y relleno) son ciclos simples sobre el arreglo primitivo, sin cajas ni
+ * saltos dentro del ciclo, para que el compilador JIT los pueda vectorizar.
+ * Las sumas enteras son exactas: si el resultado no cabe en un long se devuelve BigInteger.
+ *
+ * Un vector puede quedar al alcance de varias tareas (fork no copia los vectores), así que
+ * las escrituras y las operaciones masivas se sincronizan sobre el vector: un vfill no se
+ * mezcla con un vset de otra tarea. Las lecturas de un elemento no toman el candado.
+ */
+public final class LispVector {
+    private static final long LOW_MASK = 0xFFFFFFFFL;
+
+    private final byte type;
+    private final int[] ints;
+    private final long[] longs;
+    private final double[] doubles;
+
+    private LispVector(byte type, int[] ints, long[] longs, double[] doubles) {
+        this.type = type;
+        this.ints = ints;
+        this.longs = longs;
+        this.doubles = doubles;
+    }
+
+    /**
+     * Crea un vector lleno de ceros.
+     * @param type VariableTable.INT, VariableTable.LONG o VariableTable.DOUBLE
+     * @param length cantidad de elementos
+     * @return el vector nuevo
+     */
+    public static LispVector create(byte type, int length) {
+        switch (type) {
+            case VariableTable.INT:
+                return new LispVector(type, new int[length], null, null);
+            case VariableTable.DOUBLE:
+                return new LispVector(type, null, null, new double[length]);
+            default:
+                return new LispVector(VariableTable.LONG, null, new long[length], null);
+        }
+    }
+
+    /**
+     * Obtiene el tipo de los elementos.
+     * @return VariableTable.INT, VariableTable.LONG o VariableTable.DOUBLE
+     */
+    public byte getType() {
+        return type;
+    }
+
+    /**
+     * Obtiene la cantidad de elementos.
+     */
+    public int length() {
+        switch (type) {
+            case VariableTable.INT:
+                return ints.length;
+            case VariableTable.DOUBLE:
+                return doubles.length;
+            default:
+                return longs.length;
+        }
+    }
+
+    /**
+     * Obtiene un elemento.
+     * @param index posición del elemento
+     * @return el valor como Long o Double
+     */
+    public Object get(int index) {
+        switch (type) {
+            case VariableTable.INT:
+                return (long) ints[index];
+            case VariableTable.DOUBLE:
+                return doubles[index];
+            default:
+                return longs[index];
+        }
+    }
+
+    /**
+     * Obtiene un elemento entero sin caja (el vector no debe ser double).
+     */
+    public long getLong(int index) {
+        return type == VariableTable.INT ? ints[index] : longs[index];
+    }
+
+    /**
+     * Obtiene un elemento como double sin caja.
+     */
+    public double getDouble(int index) {
+        switch (type) {
+            case VariableTable.INT:
+                return ints[index];
+            case VariableTable.DOUBLE:
+                return doubles[index];
+            default:
+                return longs[index];
+        }
+    }
+
+    /**
+     * Indica si un valor se puede guardar en este vector: cualquier número en un vector
+     * double, un Long en un vector long y un Long de 32 bits en un vector int.
+     */
+    public boolean accepts(Object value) {
+        if (type == VariableTable.DOUBLE) {
+            return value instanceof Number;
+        }
+        if (!(value instanceof Long)) {
+            return false;
+        }
+        long number = (Long) value;
+        return type == VariableTable.LONG || (int) number == number;
+    }
+
+    /**
+     * Cambia un elemento. El valor debe ser aceptado por accepts.
+     * @param index posición del elemento
+     * @param value valor nuevo
+     */
+    public synchronized void set(int index, Object value) {
+        switch (type) {
+            case VariableTable.INT:
+                ints[index] = (int) (long) (Long) value;
+                break;
+            case VariableTable.DOUBLE:
+                doubles[index] = ((Number) value).doubleValue();
+                break;
+            default:
+                longs[index] = (Long) value;
+                break;
+        }
+    }
+
+    /**
+     * Cambia un elemento entero sin caja (el valor debe caber en el tipo del vector).
+     */
+    public synchronized void setLong(int index, long value) {
+        switch (type) {
+            case VariableTable.INT:
+                ints[index] = (int) value;
+                break;
+            case VariableTable.DOUBLE:
+                doubles[index] = value;
+                break;
+            default:
+                longs[index] = value;
+                break;
+        }
+    }
+
+    /**
+     * Llena todo el vector con un valor. El valor debe ser aceptado por accepts.
+     */
+    public synchronized void fill(Object value) {
+        switch (type) {
+            case VariableTable.INT:
+                Arrays.fill(ints, (int) (long) (Long) value);
+                break;
+            case VariableTable.DOUBLE:
+                Arrays.fill(doubles, ((Number) value).doubleValue());
+                break;
+            default:
+                Arrays.fill(longs, (Long) value);
+                break;
+        }
+    }
+
+    /**
+     * Suma todos los elementos.
+     * @return Long o BigInteger para vectores enteros, Double para vectores double
+     */
+    public synchronized Object sum() {
+        switch (type) {
+            case VariableTable.INT: {
+                long total = 0;
+                for (int i = 0; i < ints.length; i++) {
+                    total += ints[i];
+                }
+                return total;
+            }
+            case VariableTable.DOUBLE:
+                return sumDoubles(doubles);
+            default: {
+                // Las mitades alta y baja de cada long se suman por separado y no pueden desbordar
+                long high = 0;
+                long low = 0;
+                for (int i = 0; i < longs.length; i++) {
+                    high += longs[i] >> 32;
+                    low += longs[i] & LOW_MASK;
+                }
+                return combine(high, low);
+            }
+        }
+    }
+
+    /**
+     * Calcula el producto punto con otro vector del mismo tamaño.
+     * @return Long o BigInteger si ambos vectores son enteros, si no Double
+     */
+    public synchronized Object dot(LispVector other) {
+        int length = length();
+        if (type == VariableTable.DOUBLE || other.type == VariableTable.DOUBLE) {
+            if (type == VariableTable.DOUBLE && other.type == VariableTable.DOUBLE) {
+                return dotDoubles(doubles, other.doubles);
+            }
+            double total = 0;
+            for (int i = 0; i < length; i++) {
+                total += getDouble(i) * other.getDouble(i);
+            }
+            return total;
+        }
+        if (type == VariableTable.INT && other.type == VariableTable.INT) {
+            // Cada producto cabe en 63 bits; se acumula en dos mitades como en sum
+            long high = 0;
+            long low = 0;
+            for (int i = 0; i < length; i++) {
+                long product = (long) ints[i] * other.ints[i];
+                high += product >> 32;
+                low += product & LOW_MASK;
+            }
+            return combine(high, low);
+        }
+        try {
+            long total = 0;
+            for (int i = 0; i < length; i++) {
+                total = Math.addExact(total, Math.multiplyExact(getLong(i), other.getLong(i)));
+            }
+            return total;
+        } catch (ArithmeticException e) {
+            BigInteger total = BigInteger.ZERO;
+            for (int i = 0; i < length; i++) {
+                total = total.add(BigInteger.valueOf(getLong(i)).multiply(BigInteger.valueOf(other.getLong(i))));
+            }
+            return LispNumbers.normalize(total);
+        }
+    }
+
+    /**
+     * Suma elemento a elemento con otro vector del mismo tamaño.
+     * El resultado es del tipo más ancho de los dos (int, long, double).
+     * @return un vector nuevo
+     * @throws ArithmeticException si una suma entera no cabe en el tipo del resultado
+     */
+    public synchronized LispVector add(LispVector other) {
+        int length = length();
+        byte resultType = widest(type, other.type);
+        LispVector result = create(resultType, length);
+        if (resultType == VariableTable.DOUBLE) {
+            for (int i = 0; i < length; i++) {
+                result.doubles[i] = getDouble(i) + other.getDouble(i);
+            }
+        } else if (resultType == VariableTable.INT) {
+            int overflow = 0;
+            for (int i = 0; i < length; i++) {
+                int a = ints[i];
+                int b = other.ints[i];
+                int sum = a + b;
+                // Hay desborde si el signo del resultado difiere del de ambos operandos
+                overflow |= (a ^ sum) & (b ^ sum);
+                result.ints[i] = sum;
+            }
+            if (overflow < 0) {
+                throw new ArithmeticException("Error: desborde en vmap+");
+            }
+        } else {
+            long[] a = type == VariableTable.LONG ? longs : toLongs();
+            long[] b = other.type == VariableTable.LONG ? other.longs : other.toLongs();
+            long overflow = 0;
+            for (int i = 0; i < length; i++) {
+                long sum = a[i] + b[i];
+                overflow |= (a[i] ^ sum) & (b[i] ^ sum);
+                result.longs[i] = sum;
+            }
+            if (overflow < 0) {
+                throw new ArithmeticException("Error: desborde en vmap+");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Suma un número a cada elemento.
+     * El resultado es double si el vector o el número son double, si no del tipo del vector.
+     * @return un vector nuevo
+     * @throws ArithmeticException si una suma entera no cabe en el tipo del resultado
+     */
+    public synchronized LispVector add(Number scalar) {
+        int length = length();
+        if (type == VariableTable.DOUBLE || scalar instanceof Double) {
+            LispVector result = create(VariableTable.DOUBLE, length);
+            double value = scalar.doubleValue();
+            for (int i = 0; i < length; i++) {
+                result.doubles[i] = getDouble(i) + value;
+            }
+            return result;
+        }
+        if (!(scalar instanceof Long)) {
+            throw new ArithmeticException("Error: desborde en vmap+");
+        }
+        long value = (Long) scalar;
+        LispVector result = create(type, length);
+        if (type == VariableTable.INT) {
+            long overflow = 0;
+            for (int i = 0; i < length; i++) {
+                long sum = ints[i] + value;
+                overflow |= sum ^ (int) sum;
+                result.ints[i] = (int) sum;
+            }
+            if (overflow != 0 || (int) value != value) {
+                throw new ArithmeticException("Error: desborde en vmap+");
+            }
+        } else {
+            long overflow = 0;
+            for (int i = 0; i < length; i++) {
+                long sum = longs[i] + value;
+                overflow |= (longs[i] ^ sum) & (value ^ sum);
+                result.longs[i] = sum;
+            }
+            if (overflow < 0) {
+                throw new ArithmeticException("Error: desborde en vmap+");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Obtiene el menor elemento (el vector no debe estar vacío).
+     * @return Long o Double
+     */
+    public synchronized Object min() {
+        switch (type) {
+            case VariableTable.INT: {
+                int best = ints[0];
+                for (int i = 1; i < ints.length; i++) {
+                    best = Math.min(best, ints[i]);
+                }
+                return (long) best;
+            }
+            case VariableTable.DOUBLE: {
+                double best = doubles[0];
+                for (int i = 1; i < doubles.length; i++) {
+                    best = Math.min(best, doubles[i]);
+                }
+                return best;
+            }
+            default: {
+                long best = longs[0];
+                for (int i = 1; i < longs.length; i++) {
+                    best = Math.min(best, longs[i]);
+                }
+                return best;
+            }
+        }
+    }
+
+    /**
+     * Obtiene el mayor elemento (el vector no debe estar vacío).
+     * @return Long o Double
+     */
+    public synchronized Object max() {
+        switch (type) {
+            case VariableTable.INT: {
+                int best = ints[0];
+                for (int i = 1; i < ints.length; i++) {
+                    best = Math.max(best, ints[i]);
+                }
+                return (long) best;
+            }
+            case VariableTable.DOUBLE: {
+                double best = doubles[0];
+                for (int i = 1; i < doubles.length; i++) {
+                    best = Math.max(best, doubles[i]);
+                }
+                return best;
+            }
+            default: {
+                long best = longs[0];
+                for (int i = 1; i < longs.length; i++) {
+                    best = Math.max(best, longs[i]);
+                }
+                return best;
+            }
+        }
+    }
+
+    /**
+     * Representación del vector, por ejemplo #(1 2 3).
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("#(");
+        for (int i = 0; i < length(); i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(get(i));
+        }
+        return text.append(')').toString();
+    }
+
+    // Copia los elementos de un vector int como long
+    private long[] toLongs() {
+        long[] copy = new long[ints.length];
+        for (int i = 0; i < ints.length; i++) {
+            copy[i] = ints[i];
+        }
+        return copy;
+    }
+
+    // Tipo del resultado de operar dos vectores
+    private static byte widest(byte a, byte b) {
+        if (a == VariableTable.DOUBLE || b == VariableTable.DOUBLE) {
+            return VariableTable.DOUBLE;
+        }
+        if (a == VariableTable.LONG || b == VariableTable.LONG) {
+            return VariableTable.LONG;
+        }
+        return VariableTable.INT;
+    }
+
+    // Junta las mitades alta y baja de una suma exacta
+    private static Object combine(long high, long low) {
+        try {
+            return Math.addExact(Math.multiplyExact(high, 1L << 32), low);
+        } catch (ArithmeticException e) {
+            return LispNumbers.normalize(BigInteger.valueOf(high).shiftLeft(32).add(BigInteger.valueOf(low)));
+        }
+    }
+
+    // Cuatro acumuladores independientes rompen la cadena de dependencias de la suma
+    private static double sumDoubles(double[] values) {
+        double s0 = 0;
+        double s1 = 0;
+        double s2 = 0;
+        double s3 = 0;
+        int i = 0;
+        for (; i + 3 < values.length; i += 4) {
+            s0 += values[i];
+            s1 += values[i + 1];
+            s2 += values[i + 2];
+            s3 += values[i + 3];
+        }
+        for (; i < values.length; i++) {
+            s0 += values[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    private static double dotDoubles(double[] a, double[] b) {
+        double s0 = 0;
+        double s1 = 0;
+        double s2 = 0;
+        double s3 = 0;
+        int i = 0;
+        for (; i + 3 < a.length; i += 4) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+        for (; i < a.length; i++) {
+            s0 += a[i] * b[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+}
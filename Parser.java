@@ -1,62 +1,364 @@
+import java.nio.CharBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * La clase Parser analiza una cadena de texto que representa una expresion entre parentesis y se convierte en lista de tokens
  *
- * Soporta expresiones anidadas, números y símbolos
+ * Soporta expresiones anidadas, números (enteros y decimales), símbolos y literales de cadena entre comillas
  */
 public class Parser {
+    /**
+     * Revisión de las reglas de tokenización. Se incrementa cada vez que cambia cómo se
+     * clasifica o se delimita un token (2: literales decimales, 3: literales de cadena);
+     * los caches de programas la incluyen en su clave.
+     */
+    public static final int TOKENIZER_REVISION = 3;
+
+    // Tamaño mínimo (en caracteres) de cada parte de la tokenización en paralelo
+    private static final int MIN_PARALLEL_CHUNK = 1 << 20;
+
+    // Distancia máxima que se recorre buscando el comienzo de una forma de nivel superior
+    private static final int SPLIT_SEARCH_WINDOW = 1 << 16;
 
 
     /**
-     * Tokeniza una expresión de código que debe comenzar y terminar con paréntesis
+     * Tokeniza una expresión de código y enlaza cada paréntesis con su pareja
      *
      * @param code la cadena de entrada que contiene la expresión a tokenizar
      * @return una lista de objetos Token que representan la expresión tokenizada
-     * @throws RuntimeException si la expresión no comienza y termina con paréntesis
+     * @throws RuntimeException si los paréntesis no están balanceados
      */
     public List<Token> tokenize(String code) {
-        // Validar balance de paréntesis primero
-        int balance = 0;
-        for (char c : code.toCharArray()) {
-            if (c == '(') balance++;
-            if (c == ')') balance--;
-            if (balance < 0) {
-                throw new RuntimeException("Error: paréntesis de cierre sin apertura");
-            }
-        }
-        if (balance != 0) {
-            throw new RuntimeException("Error: paréntesis no balanceados");
-        }
-
-        // Eliminar la validación que requiere que todo el código esté entre paréntesis
         return tokenizeRecursive(code);
     }
 
     /**
-     * Realiza la tokenización recursiva del contenido interno de una expresion
+     * Realiza la tokenización del código; en la misma pasada valida el balance de
+     * paréntesis y guarda en cada paréntesis la distancia hasta su pareja
      *
-     * @param code la parte interna de la expresión sin los paréntesis externos
+     * @param code el código a tokenizar
      * @return una lista de tokens que representan números, símbolos o expresiones anidadas
+     * @throws RuntimeException si los paréntesis no están balanceados
      */
     private List<Token> tokenizeRecursive(String code) {
         List<Token> tokens = new ArrayList<>();
-        StringTokenizer tokenizer = new StringTokenizer(code, " ()", true);
-
-        while (tokenizer.hasMoreTokens()) {
-            String token = tokenizer.nextToken().trim();
-            if (!token.isEmpty()) {
-                if (token.equals("(") || token.equals(")")) {
-                    tokens.add(new Token("PARENTHESIS", token));
-                } else if (token.matches("-?\\d+")) { // Soporta valores negativos
-                    tokens.add(new Token("NUMBER", token));
+        int[] openStack = new int[16];
+        int depth = 0;
+        int line = 1;
+        int length = code.length();
+        int i = 0;
+
+        while (i < length) {
+            char c = code.charAt(i);
+            if (c == '\n') {
+                line++;
+                i++;
+            } else if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(') {
+                if (depth == openStack.length) {
+                    openStack = Arrays.copyOf(openStack, depth * 2);
+                }
+                openStack[depth++] = tokens.size();
+                tokens.add(new Token("PARENTHESIS", "(", line));
+                i++;
+            } else if (c == ')') {
+                if (depth == 0) {
+                    throw new RuntimeException("Error: paréntesis de cierre sin apertura");
+                }
+                int open = openStack[--depth];
+                int close = tokens.size();
+                Token closeToken = new Token("PARENTHESIS", ")", line);
+                closeToken.setPartnerOffset(open - close);
+                tokens.get(open).setPartnerOffset(close - open);
+                tokens.add(closeToken);
+                i++;
+            } else if (c == '"') {
+                int end = scanString(code, i, length);
+                tokens.add(new Token("STRING", unescape(code, i + 1, end - 1), line));
+                for (int k = i; k < end; k++) {
+                    if (code.charAt(k) == '\n') {
+                        line++;
+                    }
+                }
+                i = end;
+            } else {
+                int start = i;
+                while (i < length && !isDelimiter(code.charAt(i))) {
+                    i++;
+                }
+                String token = code.substring(start, i);
+                if (LispNumbers.isNumberText(token)) { // Enteros y decimales, también negativos
+                    tokens.add(new Token("NUMBER", token, line));
                 } else {
-                    tokens.add(new Token("SYMBOL", token));
+                    // Los símbolos se internan: las tablas de variables comparan primero por referencia
+                    tokens.add(new Token("SYMBOL", token.intern(), line));
                 }
             }
         }
+        if (depth != 0) {
+            throw new RuntimeException("Error: paréntesis no balanceados");
+        }
         return tokens;
     }
+
+    /**
+     * Busca el final de un literal de cadena.
+     *
+     * @param code el texto
+     * @param start posición de las comillas que abren el literal
+     * @param to posición donde termina el texto (exclusivo)
+     * @return la posición siguiente a las comillas que lo cierran
+     * @throws RuntimeException si el literal no se cierra
+     */
+    public static int scanString(CharSequence code, int start, int to) {
+        int i = start + 1;
+        while (i < to) {
+            char c = code.charAt(i);
+            if (c == '"') {
+                return i + 1;
+            }
+            i += c == '\\' ? 2 : 1;
+        }
+        throw new RuntimeException("Error: cadena sin cerrar");
+    }
+
+    /**
+     * Obtiene el valor de un literal de cadena: \" es una comilla, \\ una barra invertida,
+     * \n un salto de línea y \t un tabulador; cualquier otro carácter después de \ queda igual.
+     *
+     * @param code el texto
+     * @param from posición del primer carácter del literal, después de las comillas
+     * @param to posición de las comillas que lo cierran
+     * @return el valor del literal
+     */
+    public static String unescape(CharSequence code, int from, int to) {
+        StringBuilder value = null;
+        int copied = from;
+        for (int i = from; i < to; i++) {
+            if (code.charAt(i) != '\\' || i + 1 >= to) {
+                continue;
+            }
+            if (value == null) {
+                value = new StringBuilder(to - from);
+            }
+            value.append(code, copied, i);
+            char escaped = code.charAt(++i);
+            value.append(escaped == 'n' ? '\n' : escaped == 't' ? '\t' : escaped);
+            copied = i + 1;
+        }
+        if (value == null) {
+            return code.subSequence(from, to).toString();
+        }
+        return value.append(code, copied, to).toString();
+    }
+
+    private static boolean isDelimiter(char c) {
+        return c == '(' || c == ')' || c == '"' || Character.isWhitespace(c);
+    }
+
+    /**
+     * Tokeniza el código en un TokenStream compacto, sin crear un objeto por token.
+     * En la misma pasada valida el balance de paréntesis y enlaza cada paréntesis con su pareja.
+     *
+     * @param code la cadena de entrada que contiene el programa
+     * @return un TokenStream con los tokens del programa
+     * @throws RuntimeException si los paréntesis no están balanceados
+     */
+    public TokenStream tokenizeCompact(String code) {
+        char[] source = code.toCharArray();
+        Chunk chunk = tokenizeRange(source, 0, source.length);
+        if (chunk.closes.length > 0) {
+            throw new RuntimeException("Error: paréntesis de cierre sin apertura");
+        }
+        if (chunk.opens.length > 0) {
+            throw new RuntimeException("Error: paréntesis no balanceados");
+        }
+        return chunk.stream;
+    }
+
+    /**
+     * Tokeniza el código en un TokenStream compacto repartiendo el texto en partes que se
+     * tokenizan en paralelo en el ForkJoinPool común. Los cortes se buscan al comienzo de una
+     * línea que abre una forma de nivel superior (o, si no hay, entre dos tokens); cada parte
+     * enlaza sus propios paréntesis y al final se enlazan en orden los que quedaron abiertos
+     * en una parte con los cierres sobrantes de las siguientes.
+     * El resultado es igual al de tokenizeCompact.
+     *
+     * @param code la cadena de entrada que contiene el programa
+     * @return un TokenStream con los tokens del programa
+     * @throws RuntimeException si los paréntesis no están balanceados
+     */
+    public TokenStream tokenizeCompactParallel(String code) {
+        char[] source = code.toCharArray();
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int parts = Math.min(pool.getParallelism() * 4, source.length / MIN_PARALLEL_CHUNK);
+        if (parts <= 1) {
+            return tokenizeCompact(code);
+        }
+
+        int[] bounds = splitPoints(source, parts);
+        List<Callable<Chunk>> tasks = new ArrayList<>(bounds.length - 1);
+        for (int c = 0; c + 1 < bounds.length; c++) {
+            int from = bounds[c];
+            int to = bounds[c + 1];
+            tasks.add(() -> tokenizeRange(source, from, to));
+        }
+        Chunk[] chunks = new Chunk[tasks.size()];
+        List<Future<Chunk>> futures = pool.invokeAll(tasks);
+        try {
+            for (int c = 0; c < chunks.length; c++) {
+                chunks[c] = futures.get(c).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Error: tokenización interrumpida");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+
+        TokenStream[] streams = new TokenStream[chunks.length];
+        for (int c = 0; c < chunks.length; c++) {
+            streams[c] = chunks[c].stream;
+        }
+        TokenStream stream = TokenStream.concat(source, streams);
+
+        // En cada parte los cierres sobrantes están antes que las aperturas sobrantes
+        int[] openStack = new int[16];
+        int depth = 0;
+        int base = 0;
+        for (Chunk chunk : chunks) {
+            for (int close : chunk.closes) {
+                if (depth == 0) {
+                    throw new RuntimeException("Error: paréntesis de cierre sin apertura");
+                }
+                stream.link(openStack[--depth], base + close);
+            }
+            for (int open : chunk.opens) {
+                if (depth == openStack.length) {
+                    openStack = Arrays.copyOf(openStack, depth * 2);
+                }
+                openStack[depth++] = base + open;
+            }
+            base += chunk.stream.size();
+        }
+        if (depth != 0) {
+            throw new RuntimeException("Error: paréntesis no balanceados");
+        }
+        return stream;
+    }
+
+    // Tokens de un rango del texto; los paréntesis sin pareja en el rango quedan en opens y closes
+    private static Chunk tokenizeRange(char[] source, int from, int to) {
+        TokenStream stream = new TokenStream(source, (to - from) / 3);
+        int[] openStack = new int[16];
+        int depth = 0;
+        int[] closes = new int[4];
+        int closeCount = 0;
+        int i = from;
+
+        while (i < to) {
+            char c = source[i];
+            if (c == '(') {
+                if (depth == openStack.length) {
+                    openStack = Arrays.copyOf(openStack, depth * 2);
+                }
+                openStack[depth++] = stream.add(TokenStream.OPEN, i, 1);
+                i++;
+            } else if (c == ')') {
+                int close = stream.add(TokenStream.CLOSE, i, 1);
+                if (depth > 0) {
+                    stream.link(openStack[--depth], close);
+                } else {
+                    if (closeCount == closes.length) {
+                        closes = Arrays.copyOf(closes, closeCount * 2);
+                    }
+                    closes[closeCount++] = close;
+                }
+                i++;
+            } else if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '"') {
+                // El token cubre el literal con sus comillas; el valor se obtiene al crear el Token
+                int end = scanString(CharBuffer.wrap(source), i, to);
+                stream.add(TokenStream.STRING, i, end - i);
+                i = end;
+            } else {
+                int start = i;
+                while (i < to && !isDelimiter(source[i])) {
+                    i++;
+                }
+                int kind = LispNumbers.isNumberText(source, start, i)
+                        ? TokenStream.NUMBER : TokenStream.SYMBOL;
+                stream.add(kind, start, i - start);
+            }
+        }
+        return new Chunk(stream, Arrays.copyOf(openStack, depth), Arrays.copyOf(closes, closeCount));
+    }
+
+    // Puntos de corte: el primero es 0, el último el largo del texto y ninguno parte un token
+    // ni un literal de cadena (que puede tener paréntesis y saltos de línea)
+    private static int[] splitPoints(char[] source, int parts) {
+        int[] bounds = new int[parts + 1];
+        int count = 1;
+        int scanned = 0;
+        boolean inString = false;
+        for (int k = 1; k < parts; k++) {
+            int target = Math.max((int) ((long) source.length * k / parts), bounds[count - 1] + 1);
+            // Estado de las comillas al llegar a target
+            for (; scanned < target && scanned < source.length; scanned++) {
+                if (source[scanned] == '\\' && inString) {
+                    scanned++;
+                } else if (source[scanned] == '"') {
+                    inString = !inString;
+                }
+            }
+            int cut = -1;
+            int limit = Math.min(source.length - 1, target + SPLIT_SEARCH_WINDOW);
+            for (; cut == -1 && scanned < source.length; scanned++) {
+                char c = source[scanned];
+                if (inString) {
+                    if (c == '\\') {
+                        scanned++;
+                    } else if (c == '"') {
+                        inString = false;
+                    }
+                } else if (c == '"') {
+                    inString = true;
+                } else if (scanned < limit ? c == '\n' && source[scanned + 1] == '('
+                        : c == '(' || c == ')' || Character.isWhitespace(c)) {
+                    cut = scanned < limit ? scanned + 1 : scanned;
+                }
+            }
+            if (cut == -1 || cut >= source.length) {
+                break;
+            }
+            scanned = cut;
+            bounds[count++] = cut;
+        }
+        bounds[count++] = source.length;
+        return Arrays.copyOf(bounds, count);
+    }
+
+    // Resultado de tokenizar una parte del texto
+    private static final class Chunk {
+        final TokenStream stream;
+        final int[] opens;
+        final int[] closes;
+
+        Chunk(TokenStream stream, int[] opens, int[] closes) {
+            this.stream = stream;
+            this.opens = opens;
+            this.closes = closes;
+        }
+    }
 }
@@ -0,0 +1,211 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * La clase ProgramCache guarda en disco la forma analizada de un programa
+ * (su TokenStream con el índice de paréntesis) para no volver a tokenizarlo.
+ *
+ * Cada archivo se identifica con el hash SHA-256 del código, de la versión del formato y
+ * de la revisión del tokenizador (Parser.TOKENIZER_REVISION), y se lee con un mapeo de memoria.
+ */
+public class ProgramCache {
+    // Identificador y versión del formato de archivo
+    private static final int MAGIC = 0x4C504331; // "LPC1"
+    private static final int FORMAT_VERSION = 3;
+    private static final int HASH_LENGTH = 32;
+    private static final int HEADER_LENGTH = 4 + 4 + HASH_LENGTH + 4 + 4;
+    private static final String EXTENSION = ".lpc";
+
+    private final Path directory;
+
+    /**
+     * Crea un cache de programas en el directorio dado.
+     * @param directory directorio donde se guardan los archivos del cache
+     */
+    public ProgramCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * metodo para buscar un programa en el cache
+     * @param code codigo LISP en forma de cadena
+     * @return el TokenStream guardado, o null si no existe o el archivo no es válido
+     */
+    public TokenStream load(String code) {
+        byte[] hash = hash(code);
+        Path file = fileFor(hash);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_LENGTH) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+
+            // Validar cabecera: formato, hash, tamaño del código y del archivo; los tokens se
+            // revisan después de leerlos
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            byte[] storedHash = new byte[HASH_LENGTH];
+            buffer.get(storedHash);
+            if (!Arrays.equals(hash, storedHash) || buffer.getInt() != code.length()) {
+                return null;
+            }
+            int count = buffer.getInt();
+            if (count < 0 || fileSize != HEADER_LENGTH + 16L * count) {
+                return null;
+            }
+
+            IntBuffer ints = buffer.asIntBuffer();
+            int[] kinds = new int[count];
+            int[] offsets = new int[count];
+            int[] lengths = new int[count];
+            int[] partners = new int[count];
+            ints.get(kinds);
+            ints.get(offsets);
+            ints.get(lengths);
+            ints.get(partners);
+            char[] source = code.toCharArray();
+            if (!isConsistent(source, kinds, offsets, lengths, partners)) {
+                return null;
+            }
+            return new TokenStream(source, kinds, offsets, lengths, partners);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * metodo para guardar un programa analizado en el cache
+     * @param code codigo LISP en forma de cadena
+     * @param stream tokens del codigo ya analizados
+     */
+    public void store(String code, TokenStream stream) {
+        byte[] hash = hash(code);
+        Path file = fileFor(hash);
+        int count = stream.size();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + 16 * count);
+
+        buffer.putInt(MAGIC);
+        buffer.putInt(FORMAT_VERSION);
+        buffer.put(hash);
+        buffer.putInt(code.length());
+        buffer.putInt(count);
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(stream.kind(i));
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(stream.offset(i));
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(stream.length(i));
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(stream.partner(i));
+        }
+        buffer.flip();
+
+        Path temp = null;
+        try {
+            Files.createDirectories(directory);
+            // Escribir en un archivo temporal y moverlo para no dejar archivos a medias
+            temp = Files.createTempFile(directory, "lpc", ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // El cache es opcional: si no se puede escribir, se tokeniza la próxima vez
+            try {
+                if (temp != null) {
+                    Files.deleteIfExists(temp);
+                }
+            } catch (IOException ignored) {
+                // Nada más que hacer
+            }
+        }
+    }
+
+    // Revisa que los tokens leídos correspondan al código: un archivo dañado es un fallo
+    // del cache y no un error al evaluar
+    private static boolean isConsistent(char[] source, int[] kinds, int[] offsets, int[] lengths, int[] partners) {
+        int count = kinds.length;
+        for (int i = 0; i < count; i++) {
+            int offset = offsets[i];
+            int length = lengths[i];
+            if (offset < 0 || length < 1 || (long) offset + length > source.length) {
+                return false;
+            }
+            int partner = partners[i];
+            switch (kinds[i]) {
+                case TokenStream.OPEN:
+                    if (length != 1 || source[offset] != '(' || partner <= i || partner >= count
+                            || kinds[partner] != TokenStream.CLOSE || partners[partner] != i) {
+                        return false;
+                    }
+                    break;
+                case TokenStream.CLOSE:
+                    if (length != 1 || source[offset] != ')' || partner < 0 || partner >= i
+                            || kinds[partner] != TokenStream.OPEN || partners[partner] != i) {
+                        return false;
+                    }
+                    break;
+                case TokenStream.STRING:
+                    if (length < 2 || source[offset] != '"' || source[offset + length - 1] != '"' || partner != -1) {
+                        return false;
+                    }
+                    break;
+                case TokenStream.NUMBER:
+                    if (partner != -1 || !LispNumbers.isNumberText(source, offset, offset + length)) {
+                        return false;
+                    }
+                    break;
+                case TokenStream.SYMBOL:
+                    if (partner != -1) {
+                        return false;
+                    }
+                    break;
+                default:
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private Path fileFor(byte[] hash) {
+        StringBuilder name = new StringBuilder(HASH_LENGTH * 2 + EXTENSION.length());
+        for (byte b : hash) {
+            name.append(Character.forDigit((b >> 4) & 0xF, 16));
+            name.append(Character.forDigit(b & 0xF, 16));
+        }
+        return directory.resolve(name.append(EXTENSION).toString());
+    }
+
+    private byte[] hash(String code) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(ByteBuffer.allocate(8).putInt(FORMAT_VERSION).putInt(Parser.TOKENIZER_REVISION).array());
+            digest.update(code.getBytes(StandardCharsets.UTF_8));
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Error: SHA-256 no disponible", e);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * La clase SharedCell es la celda de una variable compartida (set!, incf!, compare-and-set!
+ * y swap!).
+ *
+ * Mientras el valor es un entero la celda lo guarda en un AtomicLong, así incf! sobre un
+ * contador suma sin crear un Long por intento. Cualquier otro valor (decimal, BigInteger,
+ * cadena, lista...) se guarda tal cual. Para pasar de un entero a otro tipo de valor el
+ * AtomicLong se sella con FROZEN: desde ese momento nadie más lo cambia y quien lo lee
+ * espera a que la celda apunte al valor nuevo, que se publica enseguida.
+ */
+public final class SharedCell {
+    // Marca de un AtomicLong que ya no es el valor de la celda. Long.MIN_VALUE como valor se
+    // guarda como objeto, nunca en el AtomicLong
+    private static final long FROZEN = Long.MIN_VALUE;
+
+    // Un AtomicLong con el valor entero, o el valor mismo
+    private final AtomicReference<Object> state;
+
+    /**
+     * Crea una celda.
+     * @param value valor inicial
+     */
+    public SharedCell(Object value) {
+        state = new AtomicReference<>(wrap(value));
+    }
+
+    /**
+     * Obtiene el valor actual.
+     */
+    public Object get() {
+        while (true) {
+            Object current = state.get();
+            if (!(current instanceof AtomicLong)) {
+                return current;
+            }
+            long number = ((AtomicLong) current).get();
+            if (number != FROZEN) {
+                return number;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Cambia el valor.
+     */
+    public void set(Object value) {
+        while (true) {
+            Object current = get();
+            if (replace(current, value)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Suma un entero al valor si el valor es entero y la suma cabe en un long.
+     * @return el valor nuevo, o null si hay que sumar con replace (otro tipo o desborde)
+     */
+    public Long add(long delta) {
+        while (true) {
+            Object current = state.get();
+            if (!(current instanceof AtomicLong)) {
+                return null;
+            }
+            AtomicLong counter = (AtomicLong) current;
+            long number = counter.get();
+            if (number == FROZEN) {
+                Thread.onSpinWait();
+                continue;
+            }
+            long sum = number + delta;
+            if (((number ^ sum) & (delta ^ sum)) < 0 || sum == FROZEN) {
+                return null;
+            }
+            if (counter.compareAndSet(number, sum)) {
+                return sum;
+            }
+        }
+    }
+
+    /**
+     * Cambia el valor solo si todavía es current.
+     * @param current un valor devuelto por get
+     * @param updated el valor nuevo
+     * @return true si se cambió; false si otro hilo cambió la celda antes
+     */
+    public boolean replace(Object current, Object updated) {
+        Object holder = state.get();
+        if (!(holder instanceof AtomicLong)) {
+            return holder == current && state.compareAndSet(current, wrap(updated));
+        }
+        if (!(current instanceof Long) || (Long) current == FROZEN) {
+            return false;
+        }
+        AtomicLong counter = (AtomicLong) holder;
+        long expected = (Long) current;
+        if (updated instanceof Long && (Long) updated != FROZEN) {
+            return counter.compareAndSet(expected, (Long) updated);
+        }
+        if (!counter.compareAndSet(expected, FROZEN)) {
+            return false;
+        }
+        state.set(updated);
+        return true;
+    }
+
+    private static Object wrap(Object value) {
+        return value instanceof Long && (Long) value != FROZEN ? new AtomicLong((Long) value) : value;
+    }
+}
@@ -8,6 +8,25 @@ public class Token {
     /** El valor del token (el texto real del token). */
     private String value;
 
+    /**
+     * Distancia hasta el paréntesis pareja (positiva en una apertura, negativa en un cierre).
+     * Es relativa para seguir siendo válida en sublistas y copias de un rango de tokens.
+     */
+    private int partnerOffset;
+
+    /**
+     * Valor precalculado del token: el número ya convertido en los literales numéricos,
+     * el mensaje de confirmación en el nombre de variable de un setq, o las variables libres
+     * del cuerpo en el símbolo de un lambda.
+     */
+    private Object literal;
+
+    /** Cache del sitio de llamada cuando el token nombra una función de usuario. */
+    private CallSiteCache callSiteCache;
+
+    /** Línea del código fuente donde aparece el token (desde 1), o 0 si no se conoce. */
+    private int line;
+
     /**
      * Crea un nuevo Token con el tipo y valor especificados.
      *
@@ -19,6 +38,28 @@ public class Token {
         this.value = value;
     }
 
+    /**
+     * Crea un nuevo Token con su línea en el código fuente.
+     *
+     * @param type el tipo del token
+     * @param value el valor del token
+     * @param line la línea del token (desde 1), o 0 si no se conoce
+     */
+    public Token(String type, String value, int line) {
+        this.type = type;
+        this.value = value;
+        this.line = line;
+    }
+
+    /**
+     * Obtiene la línea del código fuente donde aparece el token.
+     *
+     * @return la línea (desde 1), o 0 si no se conoce
+     */
+    public int getLine() {
+        return line;
+    }
+
     /**
      * Obtiene el tipo del token.
      *
@@ -36,4 +77,58 @@ public class Token {
     public String getValue() {
         return value;
     }
+
+    /**
+     * Obtiene el cache del sitio de llamada asociado a este token.
+     *
+     * @return el cache, o null si el token aún no se resolvió como llamada
+     */
+    public CallSiteCache getCallSiteCache() {
+        return callSiteCache;
+    }
+
+    /**
+     * Asocia un cache de sitio de llamada a este token.
+     *
+     * @param callSiteCache el cache con la función resuelta
+     */
+    public void setCallSiteCache(CallSiteCache callSiteCache) {
+        this.callSiteCache = callSiteCache;
+    }
+
+    /**
+     * Obtiene la distancia hasta el paréntesis pareja.
+     *
+     * @return la distancia, o 0 si el token no es paréntesis o no se calculó
+     */
+    public int getPartnerOffset() {
+        return partnerOffset;
+    }
+
+    /**
+     * Define la distancia hasta el paréntesis pareja.
+     *
+     * @param partnerOffset índice de la pareja menos índice de este token
+     */
+    public void setPartnerOffset(int partnerOffset) {
+        this.partnerOffset = partnerOffset;
+    }
+
+    /**
+     * Obtiene el valor precalculado del token.
+     *
+     * @return el valor precalculado, o null si aún no se calculó
+     */
+    public Object getLiteral() {
+        return literal;
+    }
+
+    /**
+     * Guarda el valor precalculado del token.
+     *
+     * @param literal el valor precalculado del token
+     */
+    public void setLiteral(Object literal) {
+        this.literal = literal;
+    }
 }
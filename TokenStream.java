@@ -0,0 +1,290 @@
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * La clase TokenStream es una representación compacta de una lista de tokens.
+ *
+ * En lugar de un objeto Token por componente léxico, guarda el tipo, la posición,
+ * la longitud y el paréntesis pareja de cada token en arreglos de enteros sobre
+ * el texto original. Los objetos Token se crean solo cuando se piden.
+ */
+public class TokenStream {
+    /** Tipo de token para un paréntesis de apertura. */
+    public static final int OPEN = 0;
+
+    /** Tipo de token para un paréntesis de cierre. */
+    public static final int CLOSE = 1;
+
+    /** Tipo de token para un número. */
+    public static final int NUMBER = 2;
+
+    /** Tipo de token para un símbolo. */
+    public static final int SYMBOL = 3;
+
+    /** Tipo de token para un literal de cadena (el token incluye las comillas). */
+    public static final int STRING = 4;
+
+    /** El texto original del programa. */
+    private final char[] source;
+
+    /** Tipo de cada token. */
+    private int[] kinds;
+
+    /** Posición de inicio de cada token en el texto. */
+    private int[] offsets;
+
+    /** Longitud de cada token en el texto. */
+    private int[] lengths;
+
+    /** Índice del paréntesis pareja de cada paréntesis, -1 para los demás tokens. */
+    private int[] partners;
+
+    /** Cantidad de tokens. */
+    private int size;
+
+    // Última posición en la que se contaron líneas, para no volver a recorrer el texto desde el principio
+    private int lineOffset;
+    private int lineNumber = 1;
+
+    /**
+     * Crea un TokenStream vacío sobre el texto dado.
+     *
+     * @param source el texto original del programa
+     * @param capacity capacidad inicial estimada de tokens
+     */
+    public TokenStream(char[] source, int capacity) {
+        this.source = source;
+        int initial = Math.max(capacity, 16);
+        kinds = new int[initial];
+        offsets = new int[initial];
+        lengths = new int[initial];
+        partners = new int[initial];
+        size = 0;
+    }
+
+    /**
+     * Crea un TokenStream a partir de arreglos ya calculados (por ejemplo, leídos de un cache).
+     *
+     * @param source el texto original del programa
+     * @param kinds tipo de cada token
+     * @param offsets posición de inicio de cada token
+     * @param lengths longitud de cada token
+     * @param partners índice de la pareja de cada paréntesis, -1 para los demás
+     */
+    public TokenStream(char[] source, int[] kinds, int[] offsets, int[] lengths, int[] partners) {
+        this.source = source;
+        this.kinds = kinds;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.partners = partners;
+        this.size = kinds.length;
+    }
+
+    /**
+     * Crea un TokenStream con los tokens de varios streams sobre el mismo texto, en orden.
+     * Las parejas de cada parte se corren a su nueva posición; los paréntesis que no tenían
+     * pareja en su parte quedan en -1 para enlazarlos después con link.
+     *
+     * @param source el texto original del programa
+     * @param parts los streams a unir
+     * @return el stream unido
+     */
+    public static TokenStream concat(char[] source, TokenStream[] parts) {
+        int total = 0;
+        for (TokenStream part : parts) {
+            total += part.size;
+        }
+        int[] kinds = new int[total];
+        int[] offsets = new int[total];
+        int[] lengths = new int[total];
+        int[] partners = new int[total];
+        int base = 0;
+        for (TokenStream part : parts) {
+            System.arraycopy(part.kinds, 0, kinds, base, part.size);
+            System.arraycopy(part.offsets, 0, offsets, base, part.size);
+            System.arraycopy(part.lengths, 0, lengths, base, part.size);
+            for (int i = 0; i < part.size; i++) {
+                int partner = part.partners[i];
+                partners[base + i] = partner == -1 ? -1 : partner + base;
+            }
+            base += part.size;
+        }
+        return new TokenStream(source, kinds, offsets, lengths, partners);
+    }
+
+    /**
+     * Agrega un token al final del stream.
+     *
+     * @param kind el tipo del token
+     * @param offset la posición de inicio en el texto
+     * @param length la longitud en el texto
+     * @return el índice del token agregado
+     */
+    public int add(int kind, int offset, int length) {
+        if (size == kinds.length) {
+            grow();
+        }
+        kinds[size] = kind;
+        offsets[size] = offset;
+        lengths[size] = length;
+        partners[size] = -1;
+        return size++;
+    }
+
+    /**
+     * Enlaza un paréntesis de apertura con su cierre.
+     *
+     * @param open índice del paréntesis de apertura
+     * @param close índice del paréntesis de cierre
+     */
+    public void link(int open, int close) {
+        partners[open] = close;
+        partners[close] = open;
+    }
+
+    private void grow() {
+        int newCapacity = kinds.length * 2;
+        kinds = Arrays.copyOf(kinds, newCapacity);
+        offsets = Arrays.copyOf(offsets, newCapacity);
+        lengths = Arrays.copyOf(lengths, newCapacity);
+        partners = Arrays.copyOf(partners, newCapacity);
+    }
+
+    /**
+     * Obtiene la cantidad de tokens.
+     *
+     * @return la cantidad de tokens
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Obtiene el tipo del token en la posición dada.
+     *
+     * @param index índice del token
+     * @return OPEN, CLOSE, NUMBER, SYMBOL o STRING
+     */
+    public int kind(int index) {
+        return kinds[index];
+    }
+
+    /**
+     * Obtiene la posición de inicio del token en el texto.
+     *
+     * @param index índice del token
+     * @return la posición en el texto original
+     */
+    public int offset(int index) {
+        return offsets[index];
+    }
+
+    /**
+     * Obtiene la longitud del token en el texto.
+     *
+     * @param index índice del token
+     * @return la longitud del token
+     */
+    public int length(int index) {
+        return lengths[index];
+    }
+
+    /**
+     * Obtiene el índice del paréntesis pareja.
+     *
+     * @param index índice de un paréntesis
+     * @return el índice del paréntesis que lo cierra o lo abre, -1 si no es paréntesis
+     */
+    public int partner(int index) {
+        return partners[index];
+    }
+
+    /**
+     * Obtiene la línea del código fuente donde comienza el token.
+     * Las líneas se cuentan desde la última consulta, así que recorrer el stream en orden
+     * lee el texto una sola vez.
+     *
+     * @param index índice del token
+     * @return la línea (desde 1)
+     */
+    public int line(int index) {
+        int offset = offsets[index];
+        if (offset < lineOffset) {
+            lineOffset = 0;
+            lineNumber = 1;
+        }
+        for (int i = lineOffset; i < offset; i++) {
+            if (source[i] == '\n') {
+                lineNumber++;
+            }
+        }
+        lineOffset = offset;
+        return lineNumber;
+    }
+
+    /**
+     * Obtiene el texto original del programa.
+     *
+     * @return el arreglo de caracteres del programa
+     */
+    public char[] getSource() {
+        return source;
+    }
+
+    /**
+     * Obtiene el valor del token como cadena (crea una cadena nueva).
+     *
+     * @param index índice del token
+     * @return el texto del token
+     */
+    public String value(int index) {
+        return new String(source, offsets[index], lengths[index]);
+    }
+
+    /**
+     * Obtiene el nombre del tipo del token tal como lo usa la clase Token.
+     *
+     * @param index índice del token
+     * @return "PARENTHESIS", "NUMBER", "SYMBOL" o "STRING"
+     */
+    public String type(int index) {
+        switch (kinds[index]) {
+            case OPEN:
+            case CLOSE:
+                return "PARENTHESIS";
+            case NUMBER:
+                return "NUMBER";
+            case STRING:
+                return "STRING";
+            default:
+                return "SYMBOL";
+        }
+    }
+
+    /**
+     * Crea los objetos Token de un rango del stream, con sus distancias a la pareja.
+     *
+     * @param from índice inicial (inclusivo)
+     * @param to índice final (exclusivo)
+     * @return una lista de tokens equivalente al rango
+     */
+    public List<Token> toTokens(int from, int to) {
+        List<Token> tokens = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            String value;
+            if (kinds[i] == STRING) {
+                value = Parser.unescape(CharBuffer.wrap(source), offsets[i] + 1, offsets[i] + lengths[i] - 1);
+            } else {
+                value = kinds[i] == SYMBOL ? value(i).intern() : value(i);
+            }
+            Token token = new Token(type(i), value, line(i));
+            if (partners[i] != -1) {
+                token.setPartnerOffset(partners[i] - i);
+            }
+            tokens.add(token);
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,340 @@
+import java.util.Arrays;
+
+/**
+ * La clase VariableTable es una tabla hash de direccionamiento abierto para las
+ * variables de un ámbito.
+ *
+ * Cada entrada guarda el nombre (normalmente un símbolo internado, que se compara
+ * primero por referencia), una etiqueta de tipo, una ranura primitiva long (los
+ * double se guardan como sus bits) y una ranura de objeto para BigInteger y cadenas.
+ * Actualizar una variable entera o decimal no crea objetos.
+ *
+ * Una variable puede además tener un tipo declarado (INT, LONG o DOUBLE) con declare;
+ * el Evaluator lo consulta al asignarla.
+ */
+public class VariableTable {
+    /** Ranura vacía. */
+    public static final byte EMPTY = 0;
+
+    /** Variable entera de 64 bits (en la ranura primitiva). */
+    public static final byte LONG = 1;
+
+    /** Variable decimal (bits del double en la ranura primitiva). */
+    public static final byte DOUBLE = 2;
+
+    /** Variable con un objeto (BigInteger o cadena). */
+    public static final byte OBJECT = 3;
+
+    /** Tipo declarado entero de 32 bits (se guarda como LONG). */
+    public static final byte INT = 4;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private String[] keys;
+    private byte[] kinds;
+    private long[] primitives;
+    private Object[] objects;
+    private byte[] declared;
+    private int size;
+    private int declaredCount;
+
+    /**
+     * Crea una tabla vacía.
+     */
+    public VariableTable() {
+        this(INITIAL_CAPACITY);
+    }
+
+    private VariableTable(int capacity) {
+        keys = new String[capacity];
+        kinds = new byte[capacity];
+        primitives = new long[capacity];
+        objects = new Object[capacity];
+        declared = new byte[capacity];
+        size = 0;
+        declaredCount = 0;
+    }
+
+    /**
+     * Crea una copia independiente de la tabla.
+     * @return una tabla nueva con las mismas variables
+     */
+    public VariableTable copy() {
+        VariableTable copy = new VariableTable(0);
+        copy.keys = keys.clone();
+        copy.kinds = kinds.clone();
+        copy.primitives = primitives.clone();
+        copy.objects = objects.clone();
+        copy.declared = declared.clone();
+        copy.size = size;
+        copy.declaredCount = declaredCount;
+        return copy;
+    }
+
+    /**
+     * Busca la ranura de una variable.
+     * @param name nombre de la variable
+     * @return índice de la ranura, o -1 si la variable no existe
+     */
+    public int find(String name) {
+        int mask = keys.length - 1;
+        int slot = hash(name) & mask;
+        while (true) {
+            String key = keys[slot];
+            if (key == null) {
+                return -1;
+            }
+            if (key == name || key.equals(name)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Obtiene el tipo de la variable en una ranura.
+     * @param slot índice devuelto por find, o -1
+     * @return LONG, DOUBLE, OBJECT, o EMPTY si la ranura es -1
+     */
+    public byte getKind(int slot) {
+        return slot < 0 ? EMPTY : kinds[slot];
+    }
+
+    /**
+     * Obtiene el valor entero de una ranura LONG.
+     */
+    public long getLong(int slot) {
+        return primitives[slot];
+    }
+
+    /**
+     * Obtiene el valor decimal de una ranura DOUBLE.
+     */
+    public double getDouble(int slot) {
+        return Double.longBitsToDouble(primitives[slot]);
+    }
+
+    /**
+     * Obtiene el objeto de una ranura OBJECT.
+     */
+    public Object getObject(int slot) {
+        return objects[slot];
+    }
+
+    /**
+     * Obtiene el tipo declarado de la variable en una ranura.
+     * @param slot índice devuelto por find, o -1
+     * @return INT, LONG, DOUBLE, o EMPTY si la variable no tiene declaración
+     */
+    public byte getDeclared(int slot) {
+        return slot < 0 ? EMPTY : declared[slot];
+    }
+
+    /**
+     * Indica si alguna variable de la tabla tiene tipo declarado.
+     */
+    public boolean hasDeclarations() {
+        return declaredCount > 0;
+    }
+
+    /**
+     * Declara el tipo de una variable. Si la variable no existe se crea con cero.
+     * @param name nombre de la variable
+     * @param type INT, LONG o DOUBLE
+     */
+    public void declare(String name, byte type) {
+        int slot = slotFor(name);
+        if (declared[slot] == EMPTY) {
+            declaredCount++;
+        }
+        declared[slot] = type;
+        if (kinds[slot] == EMPTY) {
+            kinds[slot] = type == DOUBLE ? DOUBLE : LONG;
+            primitives[slot] = 0;
+        }
+    }
+
+    /**
+     * Obtiene el nombre guardado en una ranura.
+     * @param slot índice entre 0 y capacity() - 1
+     * @return el nombre, o null si la ranura está vacía
+     */
+    public String getKey(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * Obtiene la cantidad de ranuras de la tabla (para recorrerla).
+     */
+    public int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * Obtiene la cantidad de variables guardadas.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Guarda una variable entera.
+     */
+    public void putLong(String name, long value) {
+        int slot = slotFor(name);
+        kinds[slot] = LONG;
+        primitives[slot] = value;
+        objects[slot] = null;
+    }
+
+    /**
+     * Actualiza como entera una variable que ya ocupa la ranura dada, sin volver a buscarla.
+     * @param slot índice devuelto por find
+     * @param value valor entero
+     */
+    public void putLongAt(int slot, long value) {
+        kinds[slot] = LONG;
+        primitives[slot] = value;
+        objects[slot] = null;
+    }
+
+    /**
+     * Revalida una ranura obtenida antes con find (la tabla pudo crecer desde entonces).
+     * @param name nombre de la variable
+     * @param slot ranura conocida
+     * @return la misma ranura si todavía guarda el nombre, o el resultado de find
+     */
+    public int refind(String name, int slot) {
+        return slot >= 0 && slot < keys.length && keys[slot] == name ? slot : find(name);
+    }
+
+    /**
+     * Guarda una variable decimal.
+     */
+    public void putDouble(String name, double value) {
+        int slot = slotFor(name);
+        kinds[slot] = DOUBLE;
+        primitives[slot] = Double.doubleToRawLongBits(value);
+        objects[slot] = null;
+    }
+
+    /**
+     * Guarda una variable con un objeto (BigInteger o cadena).
+     */
+    public void putObject(String name, Object value) {
+        int slot = slotFor(name);
+        kinds[slot] = OBJECT;
+        primitives[slot] = 0;
+        objects[slot] = value;
+    }
+
+    /**
+     * Elimina una variable (y su tipo declarado). Las variables que la seguían en la misma
+     * secuencia de sondeo se corren hacia atrás, así que una ranura obtenida antes con find
+     * debe revalidarse con refind.
+     * @param name nombre de la variable
+     * @return true si la variable existía
+     */
+    public boolean remove(String name) {
+        int slot = find(name);
+        if (slot < 0) {
+            return false;
+        }
+        if (declared[slot] != EMPTY) {
+            declaredCount--;
+        }
+        int mask = keys.length - 1;
+        int hole = slot;
+        int next = (slot + 1) & mask;
+        while (keys[next] != null) {
+            int home = hash(keys[next]) & mask;
+            // La entrada puede ocupar el hueco si su posición inicial no está entre el hueco y ella
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                kinds[hole] = kinds[next];
+                primitives[hole] = primitives[next];
+                objects[hole] = objects[next];
+                declared[hole] = declared[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[hole] = null;
+        kinds[hole] = EMPTY;
+        primitives[hole] = 0;
+        objects[hole] = null;
+        declared[hole] = EMPTY;
+        size--;
+        return true;
+    }
+
+    /**
+     * Elimina todas las variables.
+     */
+    public void clear() {
+        Arrays.fill(keys, null);
+        Arrays.fill(kinds, EMPTY);
+        Arrays.fill(objects, null);
+        Arrays.fill(declared, EMPTY);
+        size = 0;
+        declaredCount = 0;
+    }
+
+    // Devuelve la ranura del nombre, creándola si no existe
+    private int slotFor(String name) {
+        int mask = keys.length - 1;
+        int slot = hash(name) & mask;
+        while (true) {
+            String key = keys[slot];
+            if (key == null) {
+                break;
+            }
+            if (key == name || key.equals(name)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        // Mantener el factor de carga en 1/2 o menos
+        if ((size + 1) * 2 > keys.length) {
+            resize();
+            return slotFor(name);
+        }
+        keys[slot] = name;
+        size++;
+        return slot;
+    }
+
+    private void resize() {
+        String[] oldKeys = keys;
+        byte[] oldKinds = kinds;
+        long[] oldPrimitives = primitives;
+        Object[] oldObjects = objects;
+        byte[] oldDeclared = declared;
+        int capacity = Math.max(INITIAL_CAPACITY, oldKeys.length * 2);
+
+        keys = new String[capacity];
+        kinds = new byte[capacity];
+        primitives = new long[capacity];
+        objects = new Object[capacity];
+        declared = new byte[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                kinds[slot] = oldKinds[i];
+                primitives[slot] = oldPrimitives[i];
+                objects[slot] = oldObjects[i];
+                declared[slot] = oldDeclared[i];
+            }
+        }
+    }
+
+    private static int hash(String name) {
+        int h = name.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
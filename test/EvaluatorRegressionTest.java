@@ -0,0 +1,93 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Pruebas de regresión del Evaluator. No dependen de un framework: se compilan junto con
+ * las clases del intérprete y se ejecutan con
+ * java EvaluatorRegressionTest, que termina con código 1 si alguna falla.
+ */
+public class EvaluatorRegressionTest {
+    private static int failures;
+
+    public static void main(String[] args) {
+        // Ámbito dinámico: una función llamada desde f ve el parámetro x de f
+        check("(defun g () (print x)) (defun f (x) (g)) (f 5)", "5");
+        // El parámetro x de k oculta la variable global x dentro de h
+        check("(setq x 1) (defun h (y) (+ y x)) (defun k (x) (h 10)) (print (k 100))", "110");
+        // Un error al evaluar un argumento o un operando de > y < se devuelve sin cambios
+        check("(defun f (x) 5) (print (f (car 1)))", "Error: car requiere una lista (línea 1)");
+        check("(print (> (car 1) 2))", "Error: car requiere una lista (línea 1)");
+        // Los defun y setq de una tarea no se ven fuera de ella
+        check("(setq g 7) (await (spawn (defun helper (n) (* n 2)) (setq g 99))) (print (+ g (helper 21)))", "7");
+        // Una lambda captura la variable que guarda otra lambda y la llama en la posición de función
+        check("(defun mk (g) (lambda (x) (g x))) (setq h (mk (lambda (y) (* y 2)))) (print (funcall h 5))", "10");
+        // El cuerpo de una lambda no ve los parámetros de la función que la llama
+        check("(setq k (lambda () w)) (defun f (w) (funcall k)) (print (f 9))", "0");
+        // Una función que llama a una lambda guardada en una variable no corre en paralelo
+        // (en un hilo aparte el defun de la lambda no se vería después del map)
+        check("(setq k (lambda (x) (defun made () 42))) (defun call-k (x) (k x)) "
+                + "(setq r (map call-k (range 0 20000))) (print (made))", "42");
+        // Un sitio de llamada resuelto dentro de una tarea no queda válido para el entorno padre
+        check("(defun f () 1) (defun g () (f)) (await (spawn (defun f () 2) (g))) (defun f () 3) (print (g))", "3");
+        check("(defun g () (h)) (await (spawn (defun h () 5) (g))) (print (g))", "0");
+        // Varias tareas escriben la misma tabla sin perder entradas
+        check("(setq t (make-table)) (defun fill-table (base) (dotimes (i 100000) (table-put t (+ base i) i))) "
+                + "(setq a (spawn (fill-table 0))) (setq b (spawn (fill-table 100000))) "
+                + "(setq c (spawn (fill-table 200000))) (setq d (spawn (fill-table 300000))) "
+                + "(await a) (await b) (await c) (await d) (print (table-count t))", "400000");
+        // incf! desde varias tareas no pierde sumas; al desbordar o cambiar de tipo sigue exacto
+        check("(defun bump () (dotimes (i 100000) (incf! hits))) (setq a (spawn (bump))) (setq b (spawn (bump))) "
+                + "(setq c (spawn (bump))) (setq d (spawn (bump))) (await a) (await b) (await c) (await d) (print hits)",
+                "400000");
+        check("(set! big 9223372036854775807) (print (incf! big))", "9223372036854775808");
+        check("(set! s 5) (set! s 2.5) (incf! s) (compare-and-set! s 3.5 7) (print (incf! s 2))", "9");
+        // Un programa grande (representación compacta) se evalúa igual que uno chico
+        checkBothPaths("(print 1) 5 (setq x 2) x (print (car 1)) (print 3)");
+        checkBothPaths("(setq x 5) \"hola\" x 7 (print x)");
+
+        if (failures > 0) {
+            System.out.println(failures + " prueba(s) fallaron");
+            System.exit(1);
+        }
+        System.out.println("Todas las pruebas pasaron");
+    }
+
+    // Corre un programa con Interpreter como lista de tokens y, relleno con espacios hasta
+    // pasar el umbral, como TokenStream compacto; las dos salidas deben ser iguales
+    private static void checkBothPaths(String program) {
+        String listOutput = runInterpreter(program);
+        String compactOutput = runInterpreter(program + " ".repeat(64 * 1024));
+        if (!listOutput.equals(compactOutput)) {
+            failures++;
+            System.out.println("FALLA: " + program + "\n  lista: " + listOutput + "\n  compacta: " + compactOutput);
+        }
+    }
+
+    private static String runInterpreter(String code) {
+        PrintStream original = System.out;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(printed, true));
+        try {
+            new Interpreter().run(code);
+        } finally {
+            System.setOut(original);
+        }
+        return printed.toString().trim().replaceAll("\\R", " ");
+    }
+
+    // Evalúa un programa en un entorno nuevo y compara la última línea impresa
+    private static void check(String program, String expected) {
+        StringWriter printed = new StringWriter();
+        Evaluator evaluator = new Evaluator(new Environment());
+        evaluator.setOutput(new PrintWriter(printed));
+        evaluator.evaluateProgramValue(new Parser().tokenize(program));
+        String[] lines = printed.toString().trim().split("\\R");
+        String actual = lines[lines.length - 1];
+        if (!actual.equals(expected)) {
+            failures++;
+            System.out.println("FALLA: " + program + "\n  esperado: " + expected + "\n  obtenido: " + actual);
+        }
+    }
+}